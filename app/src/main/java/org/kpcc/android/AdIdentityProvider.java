@@ -0,0 +1,165 @@
+package org.kpcc.android;
+
+import android.content.Context;
+
+import com.google.android.gms.ads.identifier.AdvertisingIdClient;
+import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
+import com.google.android.gms.common.GooglePlayServicesRepairableException;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// The ID that ad requests are made with.
+//
+// Getting the advertising ID is a slow call into Play Services, so it's done in the background at
+// startup, and then kept in memory and in DataManager. Callers get whatever is known right away,
+// and it's looked up again in the background once it gets old (the user can reset it, or turn on
+// "Opt out of Ads Personalization", at any time).
+class AdIdentityProvider {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final static long MAX_AGE_MS = 1000 * 60 * 60 * 24; // 24 hours
+    private final static String TYPE_GAID = "gaid";
+    final static String TYPE_APP = "app";
+
+    private static AdIdentityProvider instance;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final Context mContext;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mIsResolving = new AtomicBoolean(false);
+    // Null until it's been looked up (now or in an earlier session), or if there's no Play Services.
+    private volatile AdIdentity mAdIdentity;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static void setupInstance(Context context) {
+        instance = new AdIdentityProvider(context);
+    }
+
+    static AdIdentityProvider getInstance() {
+        return instance;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private AdIdentityProvider(Context context) {
+        mContext = context.getApplicationContext();
+
+        // From the last session, until it's looked up again.
+        DataManager dataManager = DataManager.getInstance();
+        long resolvedAtMs = dataManager.getGaidResolvedAt();
+        if (resolvedAtMs > 0) {
+            mAdIdentity = newAdIdentity(dataManager.getGaid(), dataManager.getLimitAdTracking(), resolvedAtMs);
+        }
+
+        resolve();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Never blocks. Null if it isn't known (yet), in which case no ad should be requested.
+    AdIdentity getAdIdentity() {
+        AdIdentity adIdentity = mAdIdentity;
+
+        if (adIdentity == null || System.currentTimeMillis() - adIdentity.resolvedAtMs > MAX_AGE_MS) {
+            resolve();
+        }
+
+        return adIdentity;
+    }
+
+    private void resolve() {
+        if (mIsResolving.getAndSet(true)) {
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AdIdentity adIdentity = lookUp();
+                    if (adIdentity != null) {
+                        mAdIdentity = adIdentity;
+                    }
+                } finally {
+                    mIsResolving.set(false);
+                }
+            }
+        });
+    }
+
+    // Runs on the executor.
+    private AdIdentity lookUp() {
+        AdvertisingIdClient.Info adIdInfo;
+
+        try {
+            adIdInfo = AdvertisingIdClient.getAdvertisingIdInfo(mContext);
+        } catch (GooglePlayServicesNotAvailableException | GooglePlayServicesRepairableException | IOException e) {
+            // No ads without Play Services. If it's only unavailable for now, the last one is kept.
+            return null;
+        }
+
+        if (adIdInfo == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        String gaid = adIdInfo.getId();
+        boolean limitAdTracking = adIdInfo.isLimitAdTrackingEnabled();
+
+        if (gaid == null) {
+            gaid = "";
+        }
+
+        DataManager.getInstance().setGaid(gaid, limitAdTracking, now);
+        return newAdIdentity(gaid, limitAdTracking, now);
+    }
+
+    private AdIdentity newAdIdentity(String gaid, boolean limitAdTracking, long resolvedAtMs) {
+        if (gaid.isEmpty()) {
+            return new AdIdentity(TYPE_APP, getAppId(), limitAdTracking, resolvedAtMs);
+        }
+
+        return new AdIdentity(TYPE_GAID, gaid, limitAdTracking, resolvedAtMs);
+    }
+
+    // Ours, for when there's no advertising ID or it shouldn't be used.
+    String getAppId() {
+        String id = DataManager.getInstance().getAdId();
+
+        if (id.isEmpty()) {
+            id = UUID.randomUUID().toString();
+            DataManager.getInstance().setAdId(id);
+        }
+
+        return id;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Classes
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static class AdIdentity {
+        // "gaid" or "app".
+        final String type;
+        final String id;
+        final boolean limitAdTracking;
+        final long resolvedAtMs;
+
+        AdIdentity(String type, String id, boolean limitAdTracking, long resolvedAtMs) {
+            this.type = type;
+            this.id = id;
+            this.limitAdTracking = limitAdTracking;
+            this.resolvedAtMs = resolvedAtMs;
+        }
+    }
+}
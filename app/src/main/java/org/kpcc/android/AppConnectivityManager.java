@@ -56,6 +56,11 @@ public class AppConnectivityManager {
         return activeNetwork != null && activeNetwork.isConnectedOrConnecting();
     }
 
+    // eg. Wi-Fi, where it's fine to download things the user hasn't asked for yet.
+    boolean isConnectedToUnmeteredNetwork() {
+        return isConnectedToNetwork() && !mConnectivityManager.isActiveNetworkMetered();
+    }
+
     void addOnNetworkConnectivityListener(String tag, NetworkConnectivityListener listener, boolean doNow) {
         mNetworkConnectivityListeners.put(tag, listener);
 
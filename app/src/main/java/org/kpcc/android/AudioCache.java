@@ -0,0 +1,132 @@
+package org.kpcc.android;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.io.IOException;
+
+// The audio that's been streamed, kept on disk by byte range so it doesn't have to be downloaded
+// again when seeking back or replaying. See CachingDataSource.
+//
+// Episodes and the live stream have separate caches, so a long rewind in the live stream doesn't
+// push out the episode being listened to (and the other way around).
+class AudioCache {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final static String ON_DEMAND_CACHE_DIR = "audio";
+    // A few hours of episodes.
+    private final static long MAX_ON_DEMAND_CACHE_BYTES = 100L * 1024 * 1024;
+    private final static String LIVE_CACHE_DIR = "live";
+    // Around an hour and a half of the standard stream, which covers most rewinds.
+    private final static long MAX_LIVE_CACHE_BYTES = 50L * 1024 * 1024;
+    // Live segments are only a few seconds long, so only remember the lengths of recent files.
+    private final static int MAX_LENGTHS = 1000;
+    private final static String PLAYLIST_SUFFIX = ".m3u8";
+
+    private static AudioCache onDemandInstance;
+    private static AudioCache liveInstance;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final Cache mCache;
+    // The full length of each file, once it's been seen in a response. The cache only knows
+    // which ranges it has, not where the file ends.
+    private final LruCache<String, Long> mLengths = new LruCache<>(MAX_LENGTHS);
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static void setupInstance(Context context) {
+        onDemandInstance = new AudioCache(new File(context.getCacheDir(), ON_DEMAND_CACHE_DIR),
+                MAX_ON_DEMAND_CACHE_BYTES);
+        liveInstance = new AudioCache(new File(context.getCacheDir(), LIVE_CACHE_DIR),
+                MAX_LIVE_CACHE_BYTES);
+    }
+
+    static AudioCache getOnDemandInstance() {
+        return onDemandInstance;
+    }
+
+    static AudioCache getLiveInstance() {
+        return liveInstance;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private AudioCache(File directory, long maxBytes) {
+        // There can only be one SimpleCache for a directory.
+        mCache = new SimpleCache(directory, new LeastRecentlyUsedCacheEvictor(maxBytes));
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Reads from the cache where it can, and from upstream (saving what it reads) everywhere else.
+    DataSource wrap(DataSource upstream) {
+        return new CachingDataSource(this, upstream);
+    }
+
+    // For HLS: caches the segments, but never the playlists, which change all the time.
+    // Each segment has its own URL (named by its media sequence number), so that is its key.
+    DataSource wrapSegments(DataSource upstream) {
+        return new SegmentDataSource(wrap(upstream), upstream);
+    }
+
+    Cache getCache() {
+        return mCache;
+    }
+
+    // -1 if it isn't known.
+    long getLength(String key) {
+        Long length = mLengths.get(key);
+        return length == null ? -1 : length;
+    }
+
+    void setLength(String key, long length) {
+        mLengths.put(key, length);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Classes
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private static class SegmentDataSource implements DataSource {
+        private final DataSource mCached;
+        private final DataSource mUpstream;
+        private DataSource mCurrent;
+
+        SegmentDataSource(DataSource cached, DataSource upstream) {
+            mCached = cached;
+            mUpstream = upstream;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            String path = dataSpec.uri.getPath();
+            mCurrent = path != null && path.endsWith(PLAYLIST_SUFFIX) ? mUpstream : mCached;
+            return mCurrent.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            return mCurrent.read(buffer, offset, readLength);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mCurrent != null) {
+                mCurrent.close();
+                mCurrent = null;
+            }
+        }
+    }
+}
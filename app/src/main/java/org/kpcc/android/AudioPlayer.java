@@ -38,7 +38,10 @@ import com.google.android.exoplayer.hls.HlsChunkSource;
 import com.google.android.exoplayer.hls.HlsSampleSource;
 import com.google.android.exoplayer.metadata.id3.Id3Frame;
 import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer.upstream.TransferListener;
 import com.google.android.exoplayer.util.PlayerControl;
 
 import java.io.IOException;
@@ -154,16 +157,28 @@ public class AudioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     private boolean lastReportedPlayWhenReady;
 
     private TrackRenderer audioRenderer;
-    private InternalErrorListener internalErrorListener;
-    private InfoListener infoListener;
+    private final CopyOnWriteArrayList<InternalErrorListener> internalErrorListeners;
+    private final CopyOnWriteArrayList<InfoListener> infoListeners;
+    private final CopyOnWriteArrayList<TransferListener> transferListeners;
 
     public AudioPlayer(RendererBuilder rendererBuilder) {
+        this(rendererBuilder, 1000, 5000);
+    }
+
+    /**
+     * @param minBufferMs How much must be buffered before playback starts.
+     * @param minRebufferMs How much must be buffered before playback resumes after running out.
+     */
+    public AudioPlayer(RendererBuilder rendererBuilder, int minBufferMs, int minRebufferMs) {
         this.rendererBuilder = rendererBuilder;
-        player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, 1000, 5000);
+        player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, minBufferMs, minRebufferMs);
         player.addListener(this);
         playerControl = new PlayerControl(player);
         mainHandler = new Handler();
         listeners = new CopyOnWriteArrayList<>();
+        internalErrorListeners = new CopyOnWriteArrayList<>();
+        infoListeners = new CopyOnWriteArrayList<>();
+        transferListeners = new CopyOnWriteArrayList<>();
         lastReportedPlaybackState = STATE_IDLE;
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
     }
@@ -180,12 +195,76 @@ public class AudioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
         listeners.remove(listener);
     }
 
-    public void setInternalErrorListener(InternalErrorListener listener) {
-        internalErrorListener = listener;
+    public void addInternalErrorListener(InternalErrorListener listener) {
+        internalErrorListeners.add(listener);
     }
 
-    public void setInfoListener(InfoListener listener) {
-        infoListener = listener;
+    public void removeInternalErrorListener(InternalErrorListener listener) {
+        internalErrorListeners.remove(listener);
+    }
+
+    public void addInfoListener(InfoListener listener) {
+        infoListeners.add(listener);
+    }
+
+    public void removeInfoListener(InfoListener listener) {
+        infoListeners.remove(listener);
+    }
+
+    /**
+     * Listeners for the media this player loads. They're called on the loading thread.
+     */
+    public void addTransferListener(TransferListener listener) {
+        transferListeners.add(listener);
+    }
+
+    public void removeTransferListener(TransferListener listener) {
+        transferListeners.remove(listener);
+    }
+
+    /**
+     * For a {@link RendererBuilder}: tells this player's transfer listeners about everything read
+     * from the given media source, whether it came from the network or a cache.
+     */
+  /* package */ DataSource wrapDataSource(final DataSource upstream) {
+        return new DataSource() {
+            private boolean opened;
+
+            @Override
+            public long open(DataSpec dataSpec) throws IOException {
+                long length = upstream.open(dataSpec);
+                opened = true;
+                for (TransferListener listener : transferListeners) {
+                    listener.onTransferStart();
+                }
+                return length;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int readLength) throws IOException {
+                int bytesRead = upstream.read(buffer, offset, readLength);
+                if (bytesRead > 0) {
+                    for (TransferListener listener : transferListeners) {
+                        listener.onBytesTransferred(bytesRead);
+                    }
+                }
+                return bytesRead;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    upstream.close();
+                } finally {
+                    if (opened) {
+                        opened = false;
+                        for (TransferListener listener : transferListeners) {
+                            listener.onTransferEnd();
+                        }
+                    }
+                }
+            }
+        };
     }
 
     public void setVolume(float vol) {
@@ -247,8 +326,8 @@ public class AudioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
      * @param e Describes the error.
      */
   /* package */ void onRenderersError(Exception e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onRendererInitializationError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onRendererInitializationError(e);
         }
         for (Listener listener : listeners) {
             listener.onError(e);
@@ -292,6 +371,10 @@ public class AudioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
         return player.getDuration();
     }
 
+    public long getBufferedPosition() {
+        return player.getBufferedPosition();
+    }
+
     public int getBufferedPercentage() {
         return player.getBufferedPercentage();
     }
@@ -323,76 +406,76 @@ public class AudioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
 
     @Override
     public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
-        if (infoListener != null) {
-            infoListener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
+        for (InfoListener listener : infoListeners) {
+            listener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
         }
     }
 
     @Override
     public void onDownstreamFormatChanged(int sourceId, Format format, int trigger,
                                           long mediaTimeMs) {
-        if (infoListener == null) {
+        if (sourceId != TYPE_AUDIO) {
             return;
         }
-        if (sourceId == TYPE_AUDIO) {
-            infoListener.onAudioFormatEnabled(format, trigger, mediaTimeMs);
+        for (InfoListener listener : infoListeners) {
+            listener.onAudioFormatEnabled(format, trigger, mediaTimeMs);
         }
     }
 
     @Override
     public void onDecoderInitializationError(DecoderInitializationException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onDecoderInitializationError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onDecoderInitializationError(e);
         }
     }
 
     @Override
     public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onAudioTrackInitializationError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onAudioTrackInitializationError(e);
         }
     }
 
     @Override
     public void onAudioTrackWriteError(AudioTrack.WriteException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onAudioTrackWriteError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onAudioTrackWriteError(e);
         }
     }
 
     @Override
     public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
         }
     }
 
     @Override
     public void onCryptoError(CryptoException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onCryptoError(e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onCryptoError(e);
         }
     }
 
     @Override
     public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
                                      long initializationDurationMs) {
-        if (infoListener != null) {
-            infoListener.onDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
+        for (InfoListener listener : infoListeners) {
+            listener.onDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
         }
     }
 
     @Override
     public void onLoadError(int sourceId, IOException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onLoadError(sourceId, e);
+        for (InternalErrorListener listener : internalErrorListeners) {
+            listener.onLoadError(sourceId, e);
         }
     }
 
     @Override
     public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
-        if (infoListener != null) {
-            infoListener.onAvailableRangeChanged(sourceId, availableRange);
+        for (InfoListener listener : infoListeners) {
+            listener.onAvailableRangeChanged(sourceId, availableRange);
         }
         if (playerControl != null) {
             playerControl.setAvailableRange(availableRange);
@@ -407,8 +490,8 @@ public class AudioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     @Override
     public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
                               long mediaStartTimeMs, long mediaEndTimeMs) {
-        if (infoListener != null) {
-            infoListener.onLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
+        for (InfoListener listener : infoListeners) {
+            listener.onLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
                     mediaEndTimeMs);
         }
     }
@@ -416,8 +499,8 @@ public class AudioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     @Override
     public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
                                 long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs) {
-        if (infoListener != null) {
-            infoListener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format, mediaStartTimeMs,
+        for (InfoListener listener : infoListeners) {
+            listener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format, mediaStartTimeMs,
                     mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
         }
     }
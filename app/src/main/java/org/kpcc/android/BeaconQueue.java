@@ -0,0 +1,381 @@
+package org.kpcc.android;
+
+import android.content.Context;
+import android.os.Process;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Sends ad impression and tracking beacons, without losing them and without getting in the way.
+//
+// add() is called as playback starts, so it only hands the beacon to a low priority thread. That
+// writes it to a journal on disk straight away, so it survives being offline and the app being
+// killed. They're sent a few seconds later, all together on one keep-alive connection - by then
+// the stream they were fired for has started.
+// A beacon that fails is retried with its own exponential backoff, so one ad server being down
+// doesn't hold up the others. Everything is retried right away when the network comes back.
+class BeaconQueue {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final static String TAG = "BeaconQueue";
+    private final static String JOURNAL_FILE = "beacons";
+    // Beacons that arrive together (eg. an impression and its tracking URL) go out together.
+    private final static long BATCH_DELAY_MS = 5 * 1000;
+    private final static long INITIAL_BACKOFF_MS = 30 * 1000;
+    private final static long MAX_BACKOFF_MS = 60 * 60 * 1000;
+    // Ad servers stop counting them after a while.
+    private final static long MAX_AGE_MS = 3 * 24 * 60 * 60 * 1000;
+    private final static int MAX_BEACONS = 500;
+    private final static int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private final static int READ_TIMEOUT_MS = 15 * 1000;
+    private final static int BUFFER_SIZE = 4 * 1024;
+
+    private static BeaconQueue instance;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final File mJournal;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, TAG);
+        }
+    });
+
+    // These are only used on the executor, which also owns the journal file.
+    private final LinkedList<Beacon> mBeacons = new LinkedList<>();
+    private ScheduledFuture<?> mScheduledFlush;
+    private long mScheduledFlushAtMs;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static void setupInstance(Context context) {
+        instance = new BeaconQueue(context);
+    }
+
+    static BeaconQueue getInstance() {
+        return instance;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private BeaconQueue(Context context) {
+        mJournal = new File(context.getFilesDir(), JOURNAL_FILE);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readJournal();
+                scheduleFlush(BATCH_DELAY_MS);
+            }
+        });
+
+        AppConnectivityManager.getInstance().addOnNetworkConnectivityListener(TAG, new AppConnectivityManager.NetworkConnectivityListener() {
+            @Override
+            public void onConnect() {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Beacon beacon : mBeacons) {
+                            beacon.nextAttemptAtMs = 0;
+                        }
+
+                        scheduleFlush(0);
+                    }
+                });
+            }
+
+            @Override
+            public void onDisconnect() {
+            }
+        }, false);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    void add(String url) {
+        if (url == null || url.isEmpty() || url.contains("\n")) {
+            return;
+        }
+
+        final Beacon beacon = new Beacon(url, System.currentTimeMillis());
+
+        // The executor runs in order, so this is after the journal has been read.
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // If it can't be journaled, it's still sent, it just won't survive a restart.
+                appendToJournal(beacon);
+                mBeacons.add(beacon);
+
+                if (mBeacons.size() > MAX_BEACONS) {
+                    mBeacons.removeFirst();
+                    writeJournal();
+                }
+
+                scheduleFlush(BATCH_DELAY_MS);
+            }
+        });
+    }
+
+    // Keeps an earlier flush if there is one.
+    private void scheduleFlush(long delayMs) {
+        if (mBeacons.isEmpty()) {
+            return;
+        }
+
+        long flushAtMs = System.currentTimeMillis() + delayMs;
+
+        if (mScheduledFlush != null && !mScheduledFlush.isDone()) {
+            if (mScheduledFlushAtMs <= flushAtMs) {
+                return;
+            }
+
+            mScheduledFlush.cancel(false);
+        }
+
+        mScheduledFlushAtMs = flushAtMs;
+        mScheduledFlush = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mScheduledFlush = null;
+                flush();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Sends every beacon that's due.
+    private void flush() {
+        long now = System.currentTimeMillis();
+        List<Beacon> due = new ArrayList<>();
+        List<Beacon> done = new ArrayList<>();
+
+        for (Beacon beacon : mBeacons) {
+            if (now - beacon.createdAtMs > MAX_AGE_MS) {
+                done.add(beacon);
+            } else if (beacon.nextAttemptAtMs <= now) {
+                due.add(beacon);
+            }
+        }
+
+        boolean isConnected = true;
+
+        for (Beacon beacon : due) {
+            // The rest are sent when the network comes back.
+            if (!AppConnectivityManager.getInstance().isConnectedToNetwork()) {
+                isConnected = false;
+                break;
+            }
+
+            if (send(beacon.url)) {
+                done.add(beacon);
+            } else {
+                beacon.onFailed(System.currentTimeMillis());
+            }
+        }
+
+        long nextAttemptAtMs = Long.MAX_VALUE;
+
+        if (!done.isEmpty()) {
+            mBeacons.removeAll(done);
+            writeJournal();
+        }
+
+        for (Beacon beacon : mBeacons) {
+            nextAttemptAtMs = Math.min(nextAttemptAtMs, beacon.nextAttemptAtMs);
+        }
+
+        if (isConnected && nextAttemptAtMs != Long.MAX_VALUE) {
+            scheduleFlush(Math.max(0, nextAttemptAtMs - System.currentTimeMillis()));
+        }
+    }
+
+    // False if it should be tried again later. A client error won't go any better next time, so
+    // that counts as sent.
+    private boolean send(String url) {
+        URL parsedUrl;
+
+        try {
+            parsedUrl = new URL(url);
+        } catch (MalformedURLException e) {
+            // It'll never work.
+            return true;
+        }
+
+        try {
+            HttpURLConnection connection = HttpEngine.openConnection(parsedUrl);
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+
+            int status = connection.getResponseCode();
+
+            // Reading the whole response (and not calling disconnect()) lets the next beacon
+            // reuse the connection.
+            drain(status >= HttpURLConnection.HTTP_BAD_REQUEST ?
+                    connection.getErrorStream() : connection.getInputStream());
+
+            return status < HttpURLConnection.HTTP_INTERNAL_ERROR;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void readJournal() {
+        if (!mJournal.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournal), "UTF-8"));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                Beacon beacon = Beacon.fromLine(line);
+                if (beacon != null) {
+                    mBeacons.add(beacon);
+                }
+            }
+        } catch (IOException e) {
+            // Keep whatever was read.
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void appendToJournal(Beacon beacon) {
+        Writer writer = null;
+
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(mJournal, true), "UTF-8");
+            writer.write(beacon.toLine());
+        } catch (IOException e) {
+            // It's still in memory.
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    // Replaces the journal with what's left to send.
+    private void writeJournal() {
+        File tempFile = new File(mJournal.getPath() + ".tmp");
+        Writer writer = null;
+
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+            for (Beacon beacon : mBeacons) {
+                writer.write(beacon.toLine());
+            }
+
+            writer.close();
+            writer = null;
+
+            if (!tempFile.renameTo(mJournal)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            // The old journal is still there, which at worst sends some beacons twice.
+            tempFile.delete();
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // Nobody wants the body.
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing else to do.
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Classes
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private static class Beacon {
+        final String url;
+        final long createdAtMs;
+        // These are only used on the executor, and aren't kept in the journal.
+        int attempts;
+        long nextAttemptAtMs;
+
+        Beacon(String url, long createdAtMs) {
+            this.url = url;
+            this.createdAtMs = createdAtMs;
+        }
+
+        void onFailed(long now) {
+            attempts++;
+            long backoffMs = INITIAL_BACKOFF_MS << Math.min(attempts - 1, 16);
+            nextAttemptAtMs = now + Math.min(backoffMs, MAX_BACKOFF_MS);
+        }
+
+        // "<created at> <url>"
+        String toLine() {
+            return createdAtMs + " " + url + "\n";
+        }
+
+        static Beacon fromLine(String line) {
+            int separator = line.indexOf(' ');
+            if (separator <= 0) {
+                return null;
+            }
+
+            try {
+                return new Beacon(line.substring(separator + 1), Long.parseLong(line.substring(0, separator)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
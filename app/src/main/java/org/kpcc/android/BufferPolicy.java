@@ -0,0 +1,120 @@
+package org.kpcc.android;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import com.google.android.exoplayer.DefaultLoadControl;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+
+// How much audio a player buffers, and how much it needs before it starts playing.
+//
+// Every player used to get the same 16 MB buffer, and preroll, live and an episode can all be
+// alive at once, which got the app killed in the background on devices with little memory. Now
+// the buffer is sized to the memory the app is allowed, and to what's being played. Players
+// on Wi-Fi start sooner, since the rest will arrive quickly; on cellular they buffer further ahead
+// to ride out drops.
+class BufferPolicy {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Enums
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    enum StreamType {
+        LIVE,
+        ON_DEMAND,
+        // Preroll and other short sounds.
+        CLIP
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
+    // What every player used to get (about 16 MB).
+    private static final int MAX_BUFFER_SEGMENTS = 254;
+    // A 30 second preroll is well under 1 MB.
+    private static final int CLIP_BUFFER_SEGMENTS = 16;
+    private static final int MIN_BUFFER_SEGMENTS = 32;
+    // Each player gets at most this fraction of the app's memory class.
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+
+    private static final int UNMETERED_MIN_BUFFER_MS = 500;
+    private static final int UNMETERED_MIN_REBUFFER_MS = 2500;
+    private static final int METERED_MIN_BUFFER_MS = 1000;
+    private static final int METERED_MIN_REBUFFER_MS = 5000;
+
+    private static final int UNMETERED_LOW_WATERMARK_MS = 10000;
+    private static final int UNMETERED_HIGH_WATERMARK_MS = 20000;
+    private static final int METERED_LOW_WATERMARK_MS = 20000;
+    private static final int METERED_HIGH_WATERMARK_MS = 40000;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final int mBufferSegments;
+    private final int mMinBufferMs;
+    private final int mMinRebufferMs;
+    private final int mLowWatermarkMs;
+    private final int mHighWatermarkMs;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static BufferPolicy forStream(Context context, StreamType type) {
+        boolean unmetered = AppConnectivityManager.getInstance().isConnectedToUnmeteredNetwork();
+        int bufferSegments;
+
+        if (type == StreamType.CLIP) {
+            bufferSegments = CLIP_BUFFER_SEGMENTS;
+        } else {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            long budgetBytes = activityManager.getMemoryClass() * 1024L * 1024L / MEMORY_CLASS_DIVISOR;
+            bufferSegments = (int) Math.max(MIN_BUFFER_SEGMENTS,
+                    Math.min(MAX_BUFFER_SEGMENTS, budgetBytes / BUFFER_SEGMENT_SIZE));
+        }
+
+        return new BufferPolicy(bufferSegments,
+                unmetered ? UNMETERED_MIN_BUFFER_MS : METERED_MIN_BUFFER_MS,
+                unmetered ? UNMETERED_MIN_REBUFFER_MS : METERED_MIN_REBUFFER_MS,
+                unmetered ? UNMETERED_LOW_WATERMARK_MS : METERED_LOW_WATERMARK_MS,
+                unmetered ? UNMETERED_HIGH_WATERMARK_MS : METERED_HIGH_WATERMARK_MS);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private BufferPolicy(int bufferSegments, int minBufferMs, int minRebufferMs,
+                         int lowWatermarkMs, int highWatermarkMs) {
+        mBufferSegments = bufferSegments;
+        mMinBufferMs = minBufferMs;
+        mMinRebufferMs = minRebufferMs;
+        mLowWatermarkMs = lowWatermarkMs;
+        mHighWatermarkMs = highWatermarkMs;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Getters / Setters
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // In bytes.
+    int getBufferSize() {
+        return mBufferSegments * BUFFER_SEGMENT_SIZE;
+    }
+
+    // How much has to be buffered before playing starts.
+    int getMinBufferMs() {
+        return mMinBufferMs;
+    }
+
+    // How much has to be buffered before playing starts again after running out.
+    int getMinRebufferMs() {
+        return mMinRebufferMs;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // For sources that load in chunks (HLS).
+    LoadControl newLoadControl(Allocator allocator) {
+        return new DefaultLoadControl(allocator, null, null, mLowWatermarkMs, mHighWatermarkMs,
+                DefaultLoadControl.DEFAULT_LOW_BUFFER_LOAD, DefaultLoadControl.DEFAULT_HIGH_BUFFER_LOAD);
+    }
+}
@@ -0,0 +1,274 @@
+package org.kpcc.android;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.FileDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer.upstream.cache.CacheSpan;
+
+import java.io.IOException;
+
+// Reads the parts of a file that are in the AudioCache from disk, and everything else from
+// upstream, saving it to the cache as it goes.
+//
+// ExoPlayer's CacheDataSource doesn't cache anything when the length isn't known, which is
+// always the case for ExtractorSampleSource, so this keeps track of file lengths itself.
+class CachingDataSource implements DataSource {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // What's written is split into files this big, so a seek away from a partly read range
+    // still leaves most of it cached.
+    private final static long MAX_CACHE_FILE_BYTES = 2 * 1024 * 1024;
+    private final static int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final AudioCache mAudioCache;
+    private final Cache mCache;
+    private final DataSource mUpstream;
+    private final DataSource mCacheReader = new FileDataSource();
+
+    private Uri mUri;
+    private String mKey;
+    private int mFlags;
+    private long mPosition;
+    private long mBytesRemaining;
+    private DataSource mCurrentSource;
+    // Whether the current source was opened for everything that's left, so its end is the end.
+    private boolean mCurrentSourceIsLast;
+    // The range being read from upstream, locked so nothing else writes it at the same time.
+    private CacheSpan mLockedSpan;
+    private CacheDataSink mSink;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    CachingDataSource(AudioCache audioCache, DataSource upstream) {
+        mAudioCache = audioCache;
+        mCache = audioCache.getCache();
+        mUpstream = upstream;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Implementations
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    @Override // DataSource
+    public long open(DataSpec dataSpec) throws IOException {
+        mUri = dataSpec.uri;
+        mKey = dataSpec.key != null ? dataSpec.key : dataSpec.uri.toString();
+        mFlags = dataSpec.flags;
+        mPosition = dataSpec.position;
+        mBytesRemaining = dataSpec.length;
+
+        long length = mAudioCache.getLength(mKey);
+        if (mBytesRemaining == C.LENGTH_UNBOUNDED && length != -1) {
+            mBytesRemaining = Math.max(length - mPosition, 0);
+        }
+
+        try {
+            openNextSource();
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+
+        // Opening from upstream may have found out how long the file is.
+        return mBytesRemaining;
+    }
+
+    @Override // DataSource
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (mBytesRemaining == 0 || mCurrentSource == null) {
+            return -1;
+        }
+
+        try {
+            int bytesRead = mCurrentSource.read(buffer, offset, readLength);
+
+            if (bytesRead >= 0) {
+                writeToCache(buffer, offset, bytesRead);
+                mPosition += bytesRead;
+
+                if (mBytesRemaining != C.LENGTH_UNBOUNDED) {
+                    mBytesRemaining -= bytesRead;
+                }
+
+                return bytesRead;
+            }
+
+            boolean wasLast = mCurrentSourceIsLast;
+            closeCurrentSource();
+
+            if (wasLast) {
+                if (mBytesRemaining == C.LENGTH_UNBOUNDED) {
+                    mAudioCache.setLength(mKey, mPosition);
+                }
+
+                mBytesRemaining = 0;
+            }
+
+            if (mBytesRemaining == 0) {
+                return -1;
+            }
+
+            // The end of a cached range, or of a gap between them.
+            openNextSource();
+            return read(buffer, offset, readLength);
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    @Override // DataSource
+    public void close() throws IOException {
+        mUri = null;
+        closeCurrentSource();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private void openNextSource() throws IOException {
+        if (mBytesRemaining == 0) {
+            return;
+        }
+
+        CacheSpan span = mCache.startReadWriteNonBlocking(mKey, mPosition);
+
+        if (span == null) {
+            // Another player is reading this part into the cache. Just stream it.
+            openUpstream(new DataSpec(mUri, mPosition, mBytesRemaining, mKey, mFlags));
+        } else if (span.isCached) {
+            long offsetInFile = mPosition - span.position;
+            long length = span.length - offsetInFile;
+            if (mBytesRemaining != C.LENGTH_UNBOUNDED) {
+                length = Math.min(length, mBytesRemaining);
+            }
+
+            mCacheReader.open(new DataSpec(Uri.fromFile(span.file), mPosition, offsetInFile,
+                    length, mKey, mFlags));
+            mCurrentSource = mCacheReader;
+            mCurrentSourceIsLast = length == mBytesRemaining;
+        } else {
+            mLockedSpan = span;
+
+            long length = mBytesRemaining;
+            if (!span.isOpenEnded()) {
+                length = mBytesRemaining == C.LENGTH_UNBOUNDED ? span.length : Math.min(span.length, mBytesRemaining);
+            }
+
+            long bytesOpened = openUpstream(new DataSpec(mUri, mPosition, length, mKey, mFlags));
+
+            if (mCurrentSource != null && bytesOpened != C.LENGTH_UNBOUNDED) {
+                try {
+                    mSink = new CacheDataSink(mCache, MAX_CACHE_FILE_BYTES);
+                    mSink.open(new DataSpec(mUri, mPosition, bytesOpened, mKey, mFlags));
+                } catch (CacheDataSink.CacheDataSinkException e) {
+                    // Still play it, just without caching.
+                    mSink = null;
+                }
+            }
+        }
+    }
+
+    private long openUpstream(DataSpec dataSpec) throws IOException {
+        long bytesOpened;
+
+        try {
+            bytesOpened = mUpstream.open(dataSpec);
+        } catch (HttpDataSource.InvalidResponseCodeException e) {
+            // Everything up to the end was cached, but the length wasn't known (eg. it was cached
+            // before the app restarted), so this asked for the range after the end.
+            if (e.responseCode == HTTP_RANGE_NOT_SATISFIABLE && mPosition > 0 &&
+                    dataSpec.length == C.LENGTH_UNBOUNDED) {
+                mAudioCache.setLength(mKey, mPosition);
+                mBytesRemaining = 0;
+                releaseLockedSpan();
+                return 0;
+            }
+
+            throw e;
+        }
+
+        mCurrentSource = mUpstream;
+        mCurrentSourceIsLast = dataSpec.length == mBytesRemaining;
+
+        if (dataSpec.length == C.LENGTH_UNBOUNDED && bytesOpened != C.LENGTH_UNBOUNDED) {
+            mAudioCache.setLength(mKey, mPosition + bytesOpened);
+            mBytesRemaining = bytesOpened;
+        }
+
+        return bytesOpened;
+    }
+
+    private void writeToCache(byte[] buffer, int offset, int length) {
+        if (mSink == null) {
+            return;
+        }
+
+        try {
+            mSink.write(buffer, offset, length);
+        } catch (CacheDataSink.CacheDataSinkException e) {
+            // Keep what was written, and stop caching the rest.
+            closeSink();
+        }
+    }
+
+    private void closeCurrentSource() throws IOException {
+        if (mCurrentSource == null) {
+            return;
+        }
+
+        try {
+            mCurrentSource.close();
+        } finally {
+            mCurrentSource = null;
+            // The written files have to be committed before anyone else can fill in this range.
+            closeSink();
+            releaseLockedSpan();
+        }
+    }
+
+    private void closeSink() {
+        if (mSink == null) {
+            return;
+        }
+
+        try {
+            mSink.close();
+        } catch (CacheDataSink.CacheDataSinkException e) {
+            // Nothing else to do.
+        }
+
+        mSink = null;
+    }
+
+    private void releaseLockedSpan() {
+        if (mLockedSpan == null) {
+            return;
+        }
+
+        mCache.releaseHoleSpan(mLockedSpan);
+        mLockedSpan = null;
+    }
+
+    private void closeQuietly() {
+        try {
+            closeCurrentSource();
+        } catch (IOException e) {
+            // The original error is more interesting.
+        }
+
+        // In case the source never opened.
+        closeSink();
+        releaseLockedSpan();
+    }
+}
@@ -8,12 +8,17 @@ import java.util.Date;
 
 class DataManager {
     private final static String PREF_FALLBACK_AD_ID = "fallback_ad_id";
+    private final static String PREF_GAID = "gaid";
+    private final static String PREF_LIMIT_AD_TRACKING = "limit_ad_tracking";
+    private final static String PREF_GAID_RESOLVED_AT = "gaid_resolved_at";
     private final static String PREF_USER_PLAYED_LIVESTREAM = "live_stream_played";
     private final static String PREF_LIVESTREAM_PLAY_NOW = "live_stream_play_now";
     private final static String PREF_ALARM_DATE = "alarm_date";
     private final static String PREF_TIMER_MILLIS = "timer_date";
     private final static String PREF_STREAM_PREFIX = "stream";
     private final static String PREF_XFS_VALIDATED_PREFIX = "xfs_validated";
+    private final static String PREF_BITRATE_ESTIMATE_UNMETERED = "bitrate_estimate_unmetered";
+    private final static String PREF_BITRATE_ESTIMATE_METERED = "bitrate_estimate_metered";
 
     private static DataManager instance;
     private final SharedPreferences mPrefs;
@@ -38,6 +43,28 @@ class DataManager {
         mPrefs.edit().putString(PREF_FALLBACK_AD_ID, id).apply();
     }
 
+    // Empty if there isn't one.
+    public String getGaid() {
+        return mPrefs.getString(PREF_GAID, "");
+    }
+
+    public boolean getLimitAdTracking() {
+        return mPrefs.getBoolean(PREF_LIMIT_AD_TRACKING, false);
+    }
+
+    // 0 if it's never been looked up.
+    public long getGaidResolvedAt() {
+        return mPrefs.getLong(PREF_GAID_RESOLVED_AT, 0);
+    }
+
+    public void setGaid(String gaid, boolean limitAdTracking, long resolvedAtMillis) {
+        mPrefs.edit()
+                .putString(PREF_GAID, gaid)
+                .putBoolean(PREF_LIMIT_AD_TRACKING, limitAdTracking)
+                .putLong(PREF_GAID_RESOLVED_AT, resolvedAtMillis)
+                .apply();
+    }
+
     public boolean getHasPlayedLiveStream() {
         return mPrefs.getBoolean(PREF_USER_PLAYED_LIVESTREAM, false);
     }
@@ -99,4 +126,14 @@ class DataManager {
     public void clearTimerMillis() {
         mPrefs.edit().remove(PREF_TIMER_MILLIS).apply();
     }
+
+    // In bits per second, or 0 if there isn't one.
+    public long getBitrateEstimate(boolean unmetered) {
+        return mPrefs.getLong(unmetered ? PREF_BITRATE_ESTIMATE_UNMETERED : PREF_BITRATE_ESTIMATE_METERED, 0);
+    }
+
+    public void setBitrateEstimate(boolean unmetered, long bitsPerSecond) {
+        mPrefs.edit().putLong(unmetered ? PREF_BITRATE_ESTIMATE_UNMETERED : PREF_BITRATE_ESTIMATE_METERED,
+                bitsPerSecond).apply();
+    }
 }
@@ -0,0 +1,397 @@
+package org.kpcc.android;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Downloads episode audio so it can be played without a connection.
+//
+// Downloads go to a ".part" file first, and are picked up where they left off (with a Range
+// request) if the connection drops. Failed downloads are retried when the network comes back,
+// unless the server said the episode isn't there.
+// Finished downloads are kept under a quota; the ones that haven't been played (or downloaded)
+// for the longest are deleted first.
+class EpisodeDownloadManager {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final static String TAG = "EpisodeDownloadManager";
+    private final static String DOWNLOAD_DIR = "episodes";
+    private final static String AUDIO_SUFFIX = ".mp3";
+    private final static String PARTIAL_SUFFIX = ".part";
+    private final static long MAX_STORAGE_BYTES = 500L * 1024 * 1024;
+    // Never take more than this much of the free space.
+    private final static float MAX_FREE_SPACE_FRACTION = 0.25f;
+    private final static int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private final static int READ_TIMEOUT_MS = 30 * 1000;
+    private final static int BUFFER_SIZE = 16 * 1024;
+    private final static long PROGRESS_INTERVAL_MS = 500;
+    // HttpURLConnection doesn't have this one.
+    private final static int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private static EpisodeDownloadManager instance;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final File mDirectory;
+    // One at a time, so each download gets all of the bandwidth and finishes sooner.
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // These are only used on the main thread.
+    private final Set<String> mDownloading = new HashSet<>();
+    private final Set<String> mFailed = new HashSet<>();
+    private final Map<String, DownloadListener> mListeners = new HashMap<>();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static void setupInstance(Context context) {
+        instance = new EpisodeDownloadManager(context);
+    }
+
+    static EpisodeDownloadManager getInstance() {
+        return instance;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private EpisodeDownloadManager(Context context) {
+        // These can be big, so prefer external storage.
+        File baseDir = context.getExternalFilesDir(null);
+        if (baseDir == null) {
+            baseDir = context.getFilesDir();
+        }
+
+        mDirectory = new File(baseDir, DOWNLOAD_DIR);
+
+        AppConnectivityManager.getInstance().addOnNetworkConnectivityListener(TAG, new AppConnectivityManager.NetworkConnectivityListener() {
+            @Override
+            public void onConnect() {
+                for (String audioUrl : new ArrayList<>(mFailed)) {
+                    download(audioUrl);
+                }
+            }
+
+            @Override
+            public void onDisconnect() {
+            }
+        }, false);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    boolean isDownloaded(String audioUrl) {
+        return getFile(audioUrl).exists();
+    }
+
+    // The downloaded audio, or null if it hasn't been downloaded (yet). For playing it: this
+    // counts as a use, so this episode is the last to be deleted to make room for others.
+    File getDownloadedFile(String audioUrl) {
+        File file = getFile(audioUrl);
+        if (!file.exists()) {
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    boolean isDownloading(String audioUrl) {
+        return mDownloading.contains(audioUrl);
+    }
+
+    void download(final String audioUrl) {
+        if (mDownloading.contains(audioUrl) || getFile(audioUrl).exists()) {
+            return;
+        }
+
+        mDownloading.add(audioUrl);
+        mFailed.remove(audioUrl);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Result result = fetch(audioUrl);
+                final boolean didDownload = result == Result.DOWNLOADED;
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mDownloading.remove(audioUrl);
+                        if (result == Result.RETRY) {
+                            mFailed.add(audioUrl);
+                        }
+
+                        for (DownloadListener listener : new ArrayList<>(mListeners.values())) {
+                            listener.onDownloadFinished(audioUrl, didDownload);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    void addDownloadListener(String tag, DownloadListener listener) {
+        mListeners.put(tag, listener);
+    }
+
+    void removeDownloadListener(String tag) {
+        mListeners.remove(tag);
+    }
+
+    private File getFile(String audioUrl) {
+        return new File(mDirectory, hash(audioUrl) + AUDIO_SUFFIX);
+    }
+
+    // Runs on the download thread.
+    private Result fetch(final String audioUrl) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return Result.RETRY;
+        }
+
+        File file = getFile(audioUrl);
+        File partialFile = new File(file.getPath() + PARTIAL_SUFFIX);
+        HttpURLConnection connection = null;
+        InputStream in = null;
+        OutputStream out = null;
+
+        try {
+            long offset = partialFile.length();
+
+            connection = HttpEngine.openConnection(new URL(audioUrl));
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestProperty("User-Agent", Stream.USER_AGENT);
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_OK) {
+                // The server ignored the range, start over.
+                offset = 0;
+            } else if (status == HTTP_RANGE_NOT_SATISFIABLE) {
+                // Either all of it was downloaded already (but not renamed), or the file changed
+                // and got shorter. Start over next time if it's the second.
+                if (offset > 0 && offset == getTotalLength(connection)) {
+                    return finish(partialFile, file);
+                }
+
+                partialFile.delete();
+                return Result.RETRY;
+            } else if (status >= HttpURLConnection.HTTP_BAD_REQUEST && status < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                // eg. 404. Trying again won't help.
+                partialFile.delete();
+                return Result.FAILED;
+            } else if (status != HttpURLConnection.HTTP_PARTIAL) {
+                return Result.RETRY;
+            }
+
+            int contentLength = connection.getContentLength();
+            final long totalBytes = contentLength < 0 ? -1 : offset + contentLength;
+
+            if (contentLength > 0 && !makeRoom(contentLength, file)) {
+                return Result.RETRY;
+            }
+
+            in = connection.getInputStream();
+            out = new FileOutputStream(partialFile, offset > 0);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long bytesRead = offset;
+            long lastProgressMs = 0;
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                bytesRead += count;
+
+                long now = System.currentTimeMillis();
+                if (now - lastProgressMs >= PROGRESS_INTERVAL_MS) {
+                    lastProgressMs = now;
+                    postProgress(audioUrl, bytesRead, totalBytes);
+                }
+            }
+
+            out.close();
+            out = null;
+
+            if (totalBytes > 0 && partialFile.length() != totalBytes) {
+                return Result.RETRY;
+            }
+
+            return finish(partialFile, file);
+        } catch (IOException e) {
+            // Whatever was downloaded is kept, and the rest is fetched on the next try.
+            return Result.RETRY;
+        } finally {
+            closeQuietly(out);
+            closeQuietly(in);
+
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // Runs on the download thread.
+    private Result finish(File partialFile, File file) {
+        if (!partialFile.renameTo(file)) {
+            return Result.RETRY;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        makeRoom(0, file);
+        return Result.DOWNLOADED;
+    }
+
+    // The whole file's length, from a 416's "Content-Range: bytes */<length>". -1 if it's not there.
+    private static long getTotalLength(HttpURLConnection connection) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null) {
+            return -1;
+        }
+
+        int slash = contentRange.lastIndexOf('/');
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void postProgress(final String audioUrl, final long bytes, final long totalBytes) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (DownloadListener listener : new ArrayList<>(mListeners.values())) {
+                    listener.onDownloadProgress(audioUrl, bytes, totalBytes);
+                }
+            }
+        });
+    }
+
+    // Deletes the least recently used downloads until neededBytes more will fit under the quota.
+    // Partial files go first: they can't be played, and one left behind by a download that was
+    // given up (or by a process that died) would otherwise take up room forever. The file being
+    // downloaded is never deleted. Returns false if there still isn't room.
+    private boolean makeRoom(long neededBytes, File keep) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return false;
+        }
+
+        File keepPartial = new File(keep.getPath() + PARTIAL_SUFFIX);
+        long usedBytes = 0;
+        List<File> downloads = new ArrayList<>();
+
+        for (File file : files) {
+            usedBytes += file.length();
+
+            String name = file.getName();
+            if ((name.endsWith(AUDIO_SUFFIX) || name.endsWith(PARTIAL_SUFFIX)) &&
+                    !file.equals(keep) && !file.equals(keepPartial)) {
+                downloads.add(file);
+            }
+        }
+
+        long quotaBytes = Math.min(MAX_STORAGE_BYTES,
+                usedBytes + (long) (mDirectory.getUsableSpace() * MAX_FREE_SPACE_FRACTION));
+
+        Collections.sort(downloads, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                boolean lhsPartial = lhs.getName().endsWith(PARTIAL_SUFFIX);
+                boolean rhsPartial = rhs.getName().endsWith(PARTIAL_SUFFIX);
+                if (lhsPartial != rhsPartial) {
+                    return lhsPartial ? -1 : 1;
+                }
+
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+
+        for (File file : downloads) {
+            if (usedBytes + neededBytes <= quotaBytes) {
+                break;
+            }
+
+            long length = file.length();
+            if (file.delete()) {
+                usedBytes -= length;
+            }
+        }
+
+        return usedBytes + neededBytes <= quotaBytes;
+    }
+
+    static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Neither of these can happen on Android.
+            return String.valueOf(value.hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing else to do.
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Classes
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private enum Result {
+        DOWNLOADED,
+        // Try again when the network comes back.
+        RETRY,
+        FAILED
+    }
+
+    // Called on the main thread, for every download.
+    interface DownloadListener {
+        void onDownloadProgress(String audioUrl, long bytes, long totalBytes);
+        void onDownloadFinished(String audioUrl, boolean didDownload);
+    }
+}
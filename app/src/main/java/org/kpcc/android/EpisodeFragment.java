@@ -14,6 +14,8 @@ import android.widget.ScrollView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import com.android.volley.Request;
+
 import org.json.JSONException;
 import org.kpcc.api.Episode;
 import org.kpcc.api.Program;
@@ -29,13 +31,18 @@ public class EpisodeFragment extends Fragment {
     private static final String ARG_PROGRAM_SLUG = "programSlug";
     private static final String ARG_EPISODE = "episode";
     private static final String SHARE_TEXT = "%s - %s - %s";
+    private static final String SHARE_TEXT_WITHOUT_PROGRAM = "%s - %s";
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Member Variables
     ////////////////////////////////////////////////////////////////////////////////////////////////
     public final AtomicBoolean pagerVisible = new AtomicBoolean(false);
     public Episode episode;
+    // Null until the programs are in, eg. when this is brought back right after the app starts.
     public Program program;
+    private String mProgramSlug;
+    private Request mProgramsRequest;
+    private TextView mProgramTitle;
     private OnDemandPlayer mPlayer;
     private SeekBar mSeekBar;
     private TextView mCurrentTime;
@@ -43,6 +50,22 @@ public class EpisodeFragment extends Fragment {
     // Unrecoverable error. Just show an error message if this is true.
     private boolean mDidError = false;
     private PeriodicBackgroundUpdater mPeriodicBackgroundUpdater;
+    private ImageView mDownloadButton;
+    // For the title, if the program wasn't there in onCreate.
+    private final ProgramsManager.OnProgramsResponseListener mProgramsListener = new ProgramsManager.OnProgramsResponseListener() {
+        @Override
+        public void onProgramsResponse() {
+            program = ProgramsManager.instance.find(mProgramSlug);
+            if (program != null && mProgramTitle != null) {
+                mProgramTitle.setText(program.title);
+            }
+        }
+
+        @Override
+        public void onProgramsError() {
+            // The episode can still be played without the title.
+        }
+    };
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Constructors
@@ -79,7 +102,8 @@ public class EpisodeFragment extends Fragment {
 
         Bundle args = getArguments();
         if (args != null) {
-            program = ProgramsManager.instance.find(args.getString(ARG_PROGRAM_SLUG));
+            mProgramSlug = args.getString(ARG_PROGRAM_SLUG);
+            program = ProgramsManager.instance.find(mProgramSlug);
 
             try {
                 episode = Episode.buildFromJson(args.getString(ARG_EPISODE));
@@ -115,7 +139,7 @@ public class EpisodeFragment extends Fragment {
         }
 
         ImageView mShareButton = (ImageView) view.findViewById(R.id.share_btn);
-        TextView programTitle = (TextView) view.findViewById(R.id.program_title);
+        mProgramTitle = (TextView) view.findViewById(R.id.program_title);
         TextView episodeTitle = (TextView) view.findViewById(R.id.episode_title);
         TextView date = (TextView) view.findViewById(R.id.air_date);
         TextView totalTime = (TextView) view.findViewById(R.id.audio_total_time);
@@ -125,7 +149,8 @@ public class EpisodeFragment extends Fragment {
             public void onClick(View v) {
                 Intent sendIntent = new Intent();
                 sendIntent.setAction(Intent.ACTION_SEND);
-                sendIntent.putExtra(Intent.EXTRA_TEXT,
+                sendIntent.putExtra(Intent.EXTRA_TEXT, program == null ?
+                        String.format(SHARE_TEXT_WITHOUT_PROGRAM, episode.getTitle(), episode.getPublicUrl()) :
                         String.format(SHARE_TEXT, episode.getTitle(), program.title, episode.getPublicUrl()));
                 sendIntent.setType("text/plain");
 
@@ -135,6 +160,19 @@ public class EpisodeFragment extends Fragment {
             }
         });
 
+        mDownloadButton = (ImageView) view.findViewById(R.id.download_btn);
+        mDownloadButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (episode.getAudio() == null) {
+                    return;
+                }
+
+                EpisodeDownloadManager.getInstance().download(episode.getAudio().getUrl());
+                updateDownloadButton();
+            }
+        });
+
         mSeekBar = (SeekBar) view.findViewById(R.id.progress_bar);
         mCurrentTime = (TextView) view.findViewById(R.id.audio_current_time);
         mSeekBar.setMax(episode.getAudio().getDurationSeconds() * 1000);
@@ -161,7 +199,11 @@ public class EpisodeFragment extends Fragment {
             }
         });
 
-        programTitle.setText(program.title);
+        if (program != null) {
+            mProgramTitle.setText(program.title);
+        } else {
+            mProgramsRequest = ProgramsManager.instance.loadPrograms(mProgramsListener);
+        }
         date.setText(episode.getFormattedAirDate());
         totalTime.setText(Stream.getTimeFormat(episode.getAudio().getDurationSeconds()));
 
@@ -208,7 +250,7 @@ public class EpisodeFragment extends Fragment {
 
             @Override
             public void onDisconnect() {
-                if (mAudioButtonManager == null) {
+                if (mAudioButtonManager == null || isDownloaded()) {
                     return;
                 }
 
@@ -237,6 +279,18 @@ public class EpisodeFragment extends Fragment {
         MainActivity activity = (MainActivity) getActivity();
         boolean alreadyPlaying = false;
 
+        updateDownloadButton();
+        EpisodeDownloadManager.getInstance().addDownloadListener(episode.getPublicUrl(), new EpisodeDownloadManager.DownloadListener() {
+            @Override
+            public void onDownloadProgress(String audioUrl, long bytes, long totalBytes) {
+            }
+
+            @Override
+            public void onDownloadFinished(String audioUrl, boolean didDownload) {
+                updateDownloadButton();
+            }
+        });
+
         OnDemandPlayer currentPlayer = StreamManager.ConnectivityManager.getInstance().getStreamManager().getCurrentOnDemandPlayer();
         if (currentPlayer != null && currentPlayer.getAudioUrl().equals(episode.getAudio().getUrl())) {
             mPlayer = currentPlayer;
@@ -250,7 +304,7 @@ public class EpisodeFragment extends Fragment {
             // Audio should be released when next one starts, based on Audio Focus rules.
         } else {
             mPlayer = new OnDemandPlayer(activity, episode.getAudio().getUrl(),
-                    program.slug);
+                    mProgramSlug);
         }
 
 
@@ -337,7 +391,7 @@ public class EpisodeFragment extends Fragment {
             return;
         }
 
-        mPeriodicBackgroundUpdater = new PeriodicBackgroundUpdater(new PeriodicBackgroundUpdater.ProgressBarRunner(mPlayer), 100);
+        mPeriodicBackgroundUpdater = new PeriodicBackgroundUpdater(new PeriodicBackgroundUpdater.ProgressBarRunner(mPlayer, 1000), 1000);
         if (mPlayer.isPlaying()) { mPeriodicBackgroundUpdater.start(); }
 
         // No audio will play if:
@@ -367,10 +421,14 @@ public class EpisodeFragment extends Fragment {
         super.onPause();
         pagerVisible.set(false);
 
+        if (mProgramsRequest != null) { mProgramsRequest.cancel(); }
+        ProgramsManager.instance.removeListener(mProgramsListener);
+
         // If we caught an error in the episode page and episode URL was never set, then an error
         // will be raised when the user tries to back out.
         if (episode.getPublicUrl() != null) {
             AppConnectivityManager.getInstance().removeOnNetworkConnectivityListener(episode.getPublicUrl());
+            EpisodeDownloadManager.getInstance().removeDownloadListener(episode.getPublicUrl());
         }
 
         if (mPeriodicBackgroundUpdater != null) { mPeriodicBackgroundUpdater.release(); }
@@ -401,6 +459,35 @@ public class EpisodeFragment extends Fragment {
         return mPlayer.getCurrentPosition() / 1000;
     }
 
+    private boolean isDownloaded() {
+        return episode.getAudio() != null &&
+                EpisodeDownloadManager.getInstance().isDownloaded(episode.getAudio().getUrl());
+    }
+
+    private void updateDownloadButton() {
+        if (mDownloadButton == null || episode.getAudio() == null) {
+            return;
+        }
+
+        String audioUrl = episode.getAudio().getUrl();
+
+        if (isDownloaded()) {
+            mDownloadButton.setImageResource(R.drawable.ic_check);
+            mDownloadButton.setContentDescription(getString(R.string.episode_downloaded));
+            mDownloadButton.setEnabled(false);
+            mDownloadButton.setAlpha(1f);
+        } else if (EpisodeDownloadManager.getInstance().isDownloading(audioUrl)) {
+            mDownloadButton.setImageResource(R.drawable.ic_download);
+            mDownloadButton.setEnabled(false);
+            mDownloadButton.setAlpha(0.5f);
+        } else {
+            mDownloadButton.setImageResource(R.drawable.ic_download);
+            mDownloadButton.setContentDescription(getString(R.string.download_episode));
+            mDownloadButton.setEnabled(true);
+            mDownloadButton.setAlpha(1f);
+        }
+    }
+
     private boolean streamNotAvailable() {
         return mPlayer == null ||
                 !StreamManager.ConnectivityManager.getInstance().getStreamIsBound() ||
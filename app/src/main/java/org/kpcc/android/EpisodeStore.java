@@ -0,0 +1,166 @@
+package org.kpcc.android;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.json.JSONException;
+import org.kpcc.api.Episode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps the most recent episodes of each program on disk, so the episodes list can be shown
+// without waiting on the API, and only newer episodes have to be fetched.
+//
+// Episodes are stored the way EpisodesFragment shows them (segments have already been turned
+// into episodes), serialized with Episode.toJSON(), and keyed by public URL.
+class EpisodeStore extends SQLiteOpenHelper {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final static String DATABASE_NAME = "episodes.db";
+    private final static int DATABASE_VERSION = 1;
+    private final static String TABLE_EPISODES = "episodes";
+    private final static String COLUMN_PUBLIC_URL = "public_url";
+    private final static String COLUMN_PROGRAM_SLUG = "program_slug";
+    private final static String COLUMN_AIR_DATE = "air_date";
+    private final static String COLUMN_AIR_DATE_MS = "air_date_ms";
+    private final static String COLUMN_JSON = "json";
+
+    private static EpisodeStore instance;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    public static void setupInstance(Context context) {
+        instance = new EpisodeStore(context);
+    }
+
+    static EpisodeStore getInstance() {
+        return instance;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private EpisodeStore(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Implementation
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_EPISODES + " (" +
+                COLUMN_PUBLIC_URL + " TEXT PRIMARY KEY, " +
+                COLUMN_PROGRAM_SLUG + " TEXT NOT NULL, " +
+                COLUMN_AIR_DATE + " TEXT NOT NULL, " +
+                COLUMN_AIR_DATE_MS + " INTEGER NOT NULL, " +
+                COLUMN_JSON + " TEXT NOT NULL)");
+
+        db.execSQL("CREATE INDEX " + TABLE_EPISODES + "_by_program ON " + TABLE_EPISODES +
+                " (" + COLUMN_PROGRAM_SLUG + ", " + COLUMN_AIR_DATE_MS + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Everything in here can be fetched again.
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EPISODES);
+        onCreate(db);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // These all hit the disk, so don't call them on the main thread.
+
+    // Newest first.
+    ArrayList<Episode> getEpisodes(String programSlug, int limit) {
+        ArrayList<Episode> episodes = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_EPISODES,
+                new String[]{COLUMN_JSON},
+                COLUMN_PROGRAM_SLUG + " = ?", new String[]{programSlug},
+                null, null,
+                COLUMN_AIR_DATE_MS + " DESC",
+                String.valueOf(limit));
+
+        try {
+            while (cursor.moveToNext()) {
+                try {
+                    episodes.add(Episode.buildFromJson(cursor.getString(0)));
+                } catch (JSONException e) {
+                    // Skip it, it'll be replaced on the next sync.
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return episodes;
+    }
+
+    // The date (yyyy-MM-dd) of the newest stored episode, or null if nothing is stored.
+    String getLatestAirDate(String programSlug) {
+        Cursor cursor = getReadableDatabase().query(TABLE_EPISODES,
+                new String[]{COLUMN_AIR_DATE},
+                COLUMN_PROGRAM_SLUG + " = ?", new String[]{programSlug},
+                null, null,
+                COLUMN_AIR_DATE_MS + " DESC",
+                "1");
+
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+
+            // Segments have a full timestamp here, the API only wants the date.
+            String airDate = cursor.getString(0);
+            return airDate.length() > 10 ? airDate.substring(0, 10) : airDate;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Adds or replaces the episodes, then drops all but the newest `keep` episodes of the program.
+    void putEpisodes(String programSlug, List<Episode> episodes, int keep) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+
+        try {
+            for (Episode episode : episodes) {
+                if (episode.getAirDate() == null || episode.getPublicUrl() == null) {
+                    continue;
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_PUBLIC_URL, episode.getPublicUrl());
+                values.put(COLUMN_PROGRAM_SLUG, programSlug);
+                values.put(COLUMN_AIR_DATE, episode.getRawAirDate());
+                values.put(COLUMN_AIR_DATE_MS, episode.getAirDate().getTime());
+
+                try {
+                    values.put(COLUMN_JSON, episode.toJSON().toString());
+                } catch (JSONException e) {
+                    continue;
+                }
+
+                db.insertWithOnConflict(TABLE_EPISODES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+
+            db.delete(TABLE_EPISODES,
+                    COLUMN_PROGRAM_SLUG + " = ? AND " + COLUMN_PUBLIC_URL + " NOT IN (" +
+                            "SELECT " + COLUMN_PUBLIC_URL + " FROM " + TABLE_EPISODES +
+                            " WHERE " + COLUMN_PROGRAM_SLUG + " = ?" +
+                            " ORDER BY " + COLUMN_AIR_DATE_MS + " DESC LIMIT " + keep + ")",
+                    new String[]{programSlug, programSlug});
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package org.kpcc.android;
 
 import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentTransaction;
+import android.util.JsonReader;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -20,15 +22,12 @@ import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.kpcc.api.Episode;
 import org.kpcc.api.Program;
 import org.kpcc.api.Segment;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 
 public class EpisodesFragment extends Fragment
@@ -38,18 +37,39 @@ public class EpisodesFragment extends Fragment
     private static final String ARG_PROGRAM_SLUG = "program_slug";
     private static final String PARAM_PROGRAM = "program";
     private static final String PARAM_LIMIT = "limit";
-    private static final String EPISODE_LIMIT = "8";
+    private static final String PARAM_START_DATE = "start_date";
+    private static final int EPISODE_LIMIT = 8;
     private final ArrayList<Episode> mEpisodes = new ArrayList<>();
     private AbsListView mListView;
     private LinearLayout mProgressBar;
     private ListAdapter mAdapter;
+    private String mProgramSlug;
+    // Null until the programs are in, eg. when this is brought back right after the app starts.
     private Program mProgram;
     private Request mRequest;
+    private Request mProgramsRequest;
+    private StoredEpisodesTask mStoredEpisodesTask;
     private View mView;
     private LinearLayout mErrorView;
     private TextView mErrorText;
     private int mErrorMessage;
     private boolean mDidError = false;
+    private boolean mDidSync = false;
+    // For the title, if the program wasn't there in onCreate.
+    private final ProgramsManager.OnProgramsResponseListener mProgramsListener = new ProgramsManager.OnProgramsResponseListener() {
+        @Override
+        public void onProgramsResponse() {
+            mProgram = ProgramsManager.instance.find(mProgramSlug);
+            if (mProgram != null && isAdded()) {
+                getActivity().setTitle(mProgram.title);
+            }
+        }
+
+        @Override
+        public void onProgramsError() {
+            // The episodes can still be shown without the title.
+        }
+    };
 
     public static EpisodesFragment newInstance(String programSlug) {
         EpisodesFragment fragment = new EpisodesFragment();
@@ -69,8 +89,8 @@ public class EpisodesFragment extends Fragment
         // This must be getArguments(), not savedInstanceState
         Bundle args = getArguments();
         if (args != null) {
-            String programSlug = args.getString(ARG_PROGRAM_SLUG);
-            mProgram = ProgramsManager.instance.find(programSlug);
+            mProgramSlug = args.getString(ARG_PROGRAM_SLUG);
+            mProgram = ProgramsManager.instance.find(mProgramSlug);
         }
     }
 
@@ -79,9 +99,14 @@ public class EpisodesFragment extends Fragment
                              Bundle savedInstanceState) {
 
         mView = inflater.inflate(R.layout.fragment_episodes, container, false);
-        getActivity().setTitle(mProgram.title);
+        if (mProgram != null) {
+            getActivity().setTitle(mProgram.title);
+        } else {
+            // Only the title needs it.
+            mProgramsRequest = ProgramsManager.instance.loadPrograms(mProgramsListener);
+        }
         ImageView background = (ImageView) mView.findViewById(R.id.background);
-        NetworkImageManager.getInstance().setBitmap(getActivity(), background, mProgram.slug);
+        NetworkImageManager.getInstance().setBitmap(getActivity(), background, mProgramSlug);
         mListView = (AbsListView) mView.findViewById(android.R.id.list);
         mProgressBar = (LinearLayout) mView.findViewById(R.id.progress_layout);
         mErrorView = (LinearLayout)mView.findViewById(R.id.generic_load_error);
@@ -100,7 +125,10 @@ public class EpisodesFragment extends Fragment
 
             @Override
             public void onDisconnect() {
-                showError(R.string.network_error);
+                // Whatever is on disk is better than an error.
+                if (mEpisodes.isEmpty()) {
+                    loadStoredEpisodes(false);
+                }
             }
         }, true);
 
@@ -118,60 +146,59 @@ public class EpisodesFragment extends Fragment
     public void onPause() {
         super.onPause();
         if (mRequest != null) { mRequest.cancel(); }
+        if (mProgramsRequest != null) { mProgramsRequest.cancel(); }
+        ProgramsManager.instance.removeListener(mProgramsListener);
+        if (mStoredEpisodesTask != null) { mStoredEpisodesTask.cancel(false); }
         AppConnectivityManager.getInstance().removeOnNetworkConnectivityListener(EpisodesFragment.STACK_TAG);
     }
 
     private void loadEpisodes() {
-        if (!mEpisodes.isEmpty()) {
+        if (mDidSync && !mEpisodes.isEmpty()) {
             setupAdapter();
             return;
         }
 
+        loadStoredEpisodes(true);
+    }
+
+    // Shows the stored episodes (if there are any) and then, if fetchNewer is set, asks the API
+    // for anything newer.
+    private void loadStoredEpisodes(boolean fetchNewer) {
+        if (mStoredEpisodesTask != null) {
+            mStoredEpisodesTask.cancel(false);
+        }
+
+        mStoredEpisodesTask = new StoredEpisodesTask(fetchNewer);
+        mStoredEpisodesTask.execute(mProgramSlug);
+    }
+
+    private void fetchEpisodes(String latestAirDate) {
         HashMap<String, String> params = new HashMap<>();
 
-        params.put(PARAM_PROGRAM, mProgram.slug);
-        params.put(PARAM_LIMIT, EPISODE_LIMIT);
+        params.put(PARAM_PROGRAM, mProgramSlug);
+        params.put(PARAM_LIMIT, String.valueOf(EPISODE_LIMIT));
 
-        mRequest = Episode.Client.getCollection(params, new Response.Listener<JSONObject>() {
-            @Override
-            public void onResponse(JSONObject response) {
-                try {
-                    JSONArray jsonEpisodes = response.getJSONArray(Episode.PLURAL_KEY);
-
-                    for (int i = 0; i < jsonEpisodes.length(); i++) {
-                        try {
-                            Episode episode = Episode.buildFromJson(jsonEpisodes.getJSONObject(i));
-
-                            // Don't show the episode if there is no audio.
-                            if (episode.getAudio() != null) {
-                                mEpisodes.add(episode);
-                            } else {
-                                // If there was no episode but there are segments, use those as episodes.
-                                if (episode.getSegments().size() > 0) {
-                                    for (Segment segment : episode.getSegments()) {
-                                        if (segment.audio != null) {
-                                            mEpisodes.add(Episode.buildFromSegment(segment));
-                                        }
-                                    }
-                                }
-                            }
-                        } catch (JSONException e) {
-                            // implicit continue
-                            // This episode will not show.
-                        }
-                    }
-                } catch (JSONException e) {
-                    // This will happen if the API returns malformed JSON.
-                    showError(R.string.load_error);
-                }
+        // Anything older is already stored. The stored list is merged into the response, so
+        // the same day is asked for again in case more episodes were added to it.
+        if (latestAirDate != null) {
+            params.put(PARAM_START_DATE, latestAirDate);
+        }
 
-                Collections.sort(mEpisodes);
+        mRequest = Episode.Client.getCollection(params, new EpisodesParser(mProgramSlug), new Response.Listener<ArrayList<Episode>>() {
+            @Override
+            public void onResponse(ArrayList<Episode> episodes) {
+                // A cached response may be delivered first and then refreshed from the network.
+                mDidSync = true;
+                mEpisodes.clear();
+                mEpisodes.addAll(episodes);
                 setupAdapter();
             }
         }, new Response.ErrorListener() {
             @Override
             public void onErrorResponse(VolleyError error) {
-                showError(R.string.load_error);
+                if (mEpisodes.isEmpty()) {
+                    showError(R.string.load_error);
+                }
             }
         });
     }
@@ -184,12 +211,98 @@ public class EpisodesFragment extends Fragment
         fragmentManager.beginTransaction()
                 .setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN)
                 .replace(R.id.container,
-                        EpisodesPagerFragment.newInstance(mEpisodes, position, mProgram.slug),
+                        EpisodesPagerFragment.newInstance(mEpisodes, position, mProgramSlug),
                         EpisodesPagerFragment.STACK_TAG)
                 .addToBackStack(EpisodesPagerFragment.STACK_TAG)
                 .commit();
     }
 
+    // Runs on the network thread, so the listener only has to hand the list to the adapter.
+    // New episodes from the network are merged into the store, and the newest stored episodes
+    // are returned. A cached response was stored when it was new, so it isn't stored again.
+    private static class EpisodesParser implements HttpRequest.NetworkModelParser<ArrayList<Episode>> {
+        private final String mProgramSlug;
+
+        EpisodesParser(String programSlug) {
+            mProgramSlug = programSlug;
+        }
+
+        @Override
+        public ArrayList<Episode> parse(JsonReader reader) throws IOException {
+            return parse(reader, true);
+        }
+
+        @Override
+        public ArrayList<Episode> parse(JsonReader reader, boolean isFromNetwork) throws IOException {
+            EpisodeStore store = EpisodeStore.getInstance();
+
+            if (!isFromNetwork) {
+                ArrayList<Episode> stored = store.getEpisodes(mProgramSlug, EPISODE_LIMIT);
+
+                // Unless the store has been cleared since.
+                if (!stored.isEmpty()) {
+                    return stored;
+                }
+            }
+
+            ArrayList<Episode> episodes = new ArrayList<>();
+
+            for (Episode episode : Episode.readCollection(reader)) {
+                // Don't show the episode if there is no audio.
+                if (episode.getAudio() != null) {
+                    episodes.add(episode);
+                } else {
+                    // If there was no episode but there are segments, use those as episodes.
+                    for (Segment segment : episode.getSegments()) {
+                        if (segment.audio != null) {
+                            episodes.add(Episode.buildFromSegment(segment));
+                        }
+                    }
+                }
+            }
+
+            if (!isFromNetwork) {
+                return episodes;
+            }
+
+            store.putEpisodes(mProgramSlug, episodes, EPISODE_LIMIT);
+            return store.getEpisodes(mProgramSlug, EPISODE_LIMIT);
+        }
+    }
+
+    private class StoredEpisodesTask extends AsyncTask<String, Void, ArrayList<Episode>> {
+        private final boolean mFetchNewer;
+        private String mLatestAirDate;
+
+        StoredEpisodesTask(boolean fetchNewer) {
+            mFetchNewer = fetchNewer;
+        }
+
+        @Override
+        protected ArrayList<Episode> doInBackground(String... programSlugs) {
+            EpisodeStore store = EpisodeStore.getInstance();
+            mLatestAirDate = store.getLatestAirDate(programSlugs[0]);
+            return store.getEpisodes(programSlugs[0], EPISODE_LIMIT);
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<Episode> episodes) {
+            mStoredEpisodesTask = null;
+
+            if (!episodes.isEmpty()) {
+                mEpisodes.clear();
+                mEpisodes.addAll(episodes);
+                setupAdapter();
+            }
+
+            if (mFetchNewer) {
+                fetchEpisodes(mLatestAirDate);
+            } else if (mEpisodes.isEmpty()) {
+                showError(R.string.network_error);
+            }
+        }
+    }
+
     private void showError(int stringId) {
         mDidError = true;
         mErrorMessage = stringId;
@@ -27,39 +27,54 @@ import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.extractor.Extractor;
 import com.google.android.exoplayer.extractor.ExtractorSampleSource;
 import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 
 /**
  * A {@link AudioPlayer.RendererBuilder} for streams that can be read using an {@link Extractor}.
  */
 public class ExtractorRendererBuilder implements AudioPlayer.RendererBuilder {
 
-    private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
-    private static final int BUFFER_SEGMENTS = 254;
-
     private final Context context;
     private final String userAgent;
     private final Uri uri;
+    private final BufferPolicy bufferPolicy;
+    private final AudioCache cache;
+
+    public ExtractorRendererBuilder(Context context, String userAgent, Uri uri,
+                                    BufferPolicy bufferPolicy) {
+        this(context, userAgent, uri, bufferPolicy, null);
+    }
 
-    public ExtractorRendererBuilder(Context context, String userAgent, Uri uri) {
+    /**
+     * @param cache Where to keep what's been read, so seeking back doesn't download it again.
+     *              May be null.
+     */
+    public ExtractorRendererBuilder(Context context, String userAgent, Uri uri,
+                                    BufferPolicy bufferPolicy, AudioCache cache) {
         this.context = context;
         this.userAgent = userAgent;
         this.uri = uri;
+        this.bufferPolicy = bufferPolicy;
+        this.cache = cache;
     }
 
     @Override
     public void buildRenderers(AudioPlayer player) {
-        Allocator allocator = new DefaultAllocator(BUFFER_SEGMENT_SIZE);
+        StreamManager.PlaybackResources resources = StreamManager.PlaybackResources.getInstance();
+        Allocator allocator = new DefaultAllocator(BufferPolicy.BUFFER_SEGMENT_SIZE);
         Handler mainHandler = player.getMainHandler();
 
         // Build the video and audio renderers.
-        DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, null);
-        DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+        BandwidthMeter bandwidthMeter = resources.getBandwidthMeter();
+        DataSource dataSource = HttpEngine.newDataSource(context, bandwidthMeter, userAgent);
+        if (cache != null) {
+            dataSource = cache.wrap(dataSource);
+        }
+        dataSource = player.wrapDataSource(dataSource);
         ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource, allocator,
-                BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player, 0);
+                bufferPolicy.getBufferSize(), mainHandler, player, 0);
         MediaCodecAudioTrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource,
                 MediaCodecSelector.DEFAULT, null, true, mainHandler, player,
                 AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
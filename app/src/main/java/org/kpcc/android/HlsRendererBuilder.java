@@ -19,7 +19,6 @@ import android.content.Context;
 import android.media.AudioManager;
 import android.os.Handler;
 
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
 import com.google.android.exoplayer.MediaCodecSelector;
@@ -31,10 +30,9 @@ import com.google.android.exoplayer.hls.HlsPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylistParser;
 import com.google.android.exoplayer.hls.HlsSampleSource;
 import com.google.android.exoplayer.hls.PtsTimestampAdjusterProvider;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.ManifestFetcher.ManifestCallback;
 
@@ -45,24 +43,23 @@ import java.io.IOException;
  */
 public class HlsRendererBuilder implements AudioPlayer.RendererBuilder {
 
-    private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
-    private static final int BUFFER_SEGMENTS = 254;
-
     private final Context context;
     private final String userAgent;
     private final String url;
+    private final BufferPolicy bufferPolicy;
 
     private AsyncRendererBuilder currentAsyncBuilder;
 
-    public HlsRendererBuilder(Context context, String userAgent, String url) {
+    public HlsRendererBuilder(Context context, String userAgent, String url, BufferPolicy bufferPolicy) {
         this.context = context;
         this.userAgent = userAgent;
         this.url = url;
+        this.bufferPolicy = bufferPolicy;
     }
 
     @Override
     public void buildRenderers(AudioPlayer player) {
-        currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, player);
+        currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, bufferPolicy, player);
         currentAsyncBuilder.init();
     }
 
@@ -79,22 +76,32 @@ public class HlsRendererBuilder implements AudioPlayer.RendererBuilder {
         private final Context context;
         private final String userAgent;
         private final String url;
+        private final BufferPolicy bufferPolicy;
         private final AudioPlayer player;
         private final ManifestFetcher<HlsPlaylist> playlistFetcher;
 
         private boolean canceled;
 
-        public AsyncRendererBuilder(Context context, String userAgent, String url, AudioPlayer player) {
+        public AsyncRendererBuilder(Context context, String userAgent, String url,
+                                    BufferPolicy bufferPolicy, AudioPlayer player) {
             this.context = context;
             this.userAgent = userAgent;
             this.url = url;
+            this.bufferPolicy = bufferPolicy;
             this.player = player;
             HlsPlaylistParser parser = new HlsPlaylistParser();
-            playlistFetcher = new ManifestFetcher<>(url, new DefaultUriDataSource(context, userAgent),
+            playlistFetcher = new ManifestFetcher<>(url, HttpEngine.newDataSource(context, null, userAgent),
                     parser);
         }
 
         public void init() {
+            // Start right away if the playlist was fetched before play was pressed.
+            HlsPlaylist prefetchedPlaylist = LiveStreamPrefetcher.instance.getPlaylist(url);
+            if (prefetchedPlaylist != null) {
+                onSingleManifest(prefetchedPlaylist);
+                return;
+            }
+
             playlistFetcher.singleLoad(player.getMainHandler().getLooper(), this);
         }
 
@@ -118,17 +125,24 @@ public class HlsRendererBuilder implements AudioPlayer.RendererBuilder {
             }
 
             Handler mainHandler = player.getMainHandler();
-            LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-            DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
+            StreamManager.PlaybackResources resources = StreamManager.PlaybackResources.getInstance();
+            LoadControl loadControl = bufferPolicy.newLoadControl(new DefaultAllocator(BufferPolicy.BUFFER_SEGMENT_SIZE));
+            BandwidthMeter bandwidthMeter = resources.getBandwidthMeter();
             PtsTimestampAdjusterProvider timestampAdjusterProvider = new PtsTimestampAdjusterProvider();
 
-            DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            // Keep the segments that have been played, so rewinding doesn't download them again.
+            DataSource dataSource = HttpEngine.newDataSource(context, bandwidthMeter, userAgent);
+            if (AudioCache.getLiveInstance() != null) {
+                dataSource = AudioCache.getLiveInstance().wrapSegments(dataSource);
+            }
+            dataSource = player.wrapDataSource(dataSource);
+
             HlsChunkSource chunkSource = new HlsChunkSource(true /* isMaster */, dataSource, url,
                     manifest, DefaultHlsTrackSelector.newDefaultInstance(context), bandwidthMeter,
                     timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE,
                     player.getMainHandler(), player, AudioPlayer.TYPE_AUDIO);
             HlsSampleSource sampleSource = new HlsSampleSource(chunkSource, loadControl,
-                    BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player, AudioPlayer.TYPE_AUDIO);
+                    bufferPolicy.getBufferSize(), mainHandler, player, AudioPlayer.TYPE_AUDIO);
             MediaCodecAudioTrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource,
                 MediaCodecSelector.DEFAULT, null, true, player.getMainHandler(), player,
                 AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
@@ -0,0 +1,103 @@
+package org.kpcc.android;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.android.volley.toolbox.HttpStack;
+import com.android.volley.toolbox.HurlStack;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Where every HTTP connection the app makes comes from: Volley's, the players' and the downloads'.
+//
+// They all use the platform's HttpURLConnection, which keeps idle connections in one pool for the
+// whole process and asks for gzip (and unzips it) by itself. The pool only keeps 5 connections by
+// default though, fewer than the Volley queues, players and downloads use at once, so connections
+// to scpr.org and media.scpr.org were being closed and opened again. This sizes the pool to fit.
+// It can also look up a host ahead of time (eg. the live stream's, before play is pressed), so
+// the first request to it doesn't wait on DNS.
+//
+// To use a different HTTP client, this is the only class that has to change.
+class HttpEngine {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // The system resolver keeps answers for a while, so there's no point looking up more often.
+    private final static long DNS_WARM_UP_INTERVAL_MS = 60 * 1000;
+    // Idle connections kept in the pool, across all hosts.
+    private final static int MAX_IDLE_CONNECTIONS = 12;
+    private final static long KEEP_ALIVE_MS = 5 * 60 * 1000;
+
+    // The thread is only started by the first warm up.
+    private final static ExecutorService dnsExecutor = Executors.newSingleThreadExecutor();
+    private final static Map<String, Long> dnsWarmedUpAtMs = new ConcurrentHashMap<>();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Has to be called before any connection is opened, since the pool reads these once.
+    static void setup() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+        System.setProperty("http.keepAliveDuration", String.valueOf(KEEP_ALIVE_MS));
+    }
+
+    // Looks up the host in the background. The answer is cached by the system resolver.
+    static void warmUpDns(final String host) {
+        if (host == null) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        Long warmedUpAtMs = dnsWarmedUpAtMs.get(host);
+        if (warmedUpAtMs != null && now - warmedUpAtMs < DNS_WARM_UP_INTERVAL_MS) {
+            return;
+        }
+
+        dnsWarmedUpAtMs.put(host, now);
+        dnsExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InetAddress.getAllByName(host);
+                } catch (UnknownHostException e) {
+                    // Offline. It'll be looked up when it's needed.
+                    dnsWarmedUpAtMs.remove(host);
+                }
+            }
+        });
+    }
+
+    static HttpURLConnection openConnection(URL url) throws IOException {
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    // For Volley.
+    static HttpStack newHttpStack() {
+        return new HurlStack() {
+            @Override
+            protected HttpURLConnection createConnection(URL url) throws IOException {
+                return openConnection(url);
+            }
+        };
+    }
+
+    // For ExoPlayer. Reads http(s), file and asset URIs.
+    static UriDataSource newDataSource(Context context, TransferListener listener, String userAgent) {
+        return new DefaultUriDataSource(context, listener, new DefaultHttpDataSource(userAgent, null,
+                listener, DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS));
+    }
+}
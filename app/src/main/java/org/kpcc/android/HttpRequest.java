@@ -2,22 +2,33 @@ package org.kpcc.android;
 
 import android.content.Context;
 import android.net.Uri;
+import android.util.JsonReader;
 
+import com.android.volley.AuthFailureError;
+import com.android.volley.Cache;
+import com.android.volley.Network;
 import com.android.volley.NetworkResponse;
 import com.android.volley.ParseError;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
 import com.android.volley.toolbox.HttpHeaderParser;
 import com.android.volley.toolbox.JsonObjectRequest;
+import com.android.volley.toolbox.NoCache;
 import com.android.volley.toolbox.StringRequest;
-import com.android.volley.toolbox.Volley;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -38,12 +49,88 @@ public class HttpRequest {
         return builder.build().toString();
     }
 
+    /**
+     * Builds the cache entry for a response according to a CachePolicy.
+     * The API mostly sends headers which tell Volley not to cache anything, so when there is a
+     * policy we ignore the freshness headers but keep the validators (ETag, Last-Modified), which
+     * Volley sends back as If-None-Match/If-Modified-Since when the entry needs a refresh.
+     */
+    public static Cache.Entry parseCacheHeaders(NetworkResponse response, CachePolicy policy) {
+        if (policy == null) {
+            return HttpHeaderParser.parseCacheHeaders(response);
+        }
+
+        Map<String, String> headers = new HashMap<>(response.headers);
+        headers.remove("Cache-Control");
+        headers.remove("Expires");
+        headers.remove("Pragma");
+
+        Cache.Entry entry = HttpHeaderParser.parseCacheHeaders(
+                new NetworkResponse(response.statusCode, response.data, headers, response.notModified));
+
+        long now = System.currentTimeMillis();
+        entry.softTtl = now + policy.softTtlMs;
+        entry.ttl = now + Math.max(policy.ttlMs, policy.softTtlMs);
+        // Keep the original headers so the cached response looks just like the network one.
+        entry.responseHeaders = response.headers;
+
+        return entry;
+    }
+
+    /**
+     * How long a response may be served from the disk cache.
+     * Until softTtlMs the cached body is used without touching the network. After that, and until
+     * ttlMs, the cached body is delivered immediately and then revalidated in the background
+     * (stale-while-revalidate), so listeners may be called a second time with fresh data.
+     * After ttlMs the request has to wait for the network.
+     */
+    public static class CachePolicy {
+        public final long softTtlMs;
+        public final long ttlMs;
+
+        public CachePolicy(long softTtlMs, long ttlMs) {
+            this.softTtlMs = softTtlMs;
+            this.ttlMs = ttlMs;
+        }
+    }
+
     public static class Manager {
+        private static final String CACHE_DIR = "volley";
+        private static final int CACHE_SIZE_BYTES = 10 * 1024 * 1024;
+        // Program tiles get their own cache, so API responses don't push them out (and the
+        // other way around).
+        private static final String IMAGE_CACHE_DIR = "volley-images";
+        private static final int IMAGE_CACHE_SIZE_BYTES = 30 * 1024 * 1024;
+        private static final int IMAGE_THREAD_POOL_SIZE = 2;
+        // Nobody is waiting on background work, so it only ever takes one connection.
+        private static final int BACKGROUND_THREAD_POOL_SIZE = 1;
+
         public static Manager instance = null;
+        // API requests someone is waiting for: schedules, episodes, programs, feedback.
         public final RequestQueue requestQueue;
+        // Images that are about to be shown.
+        public final RequestQueue imageRequestQueue;
+        // Prefetching that isn't cached (the next preroll). It has its own dispatcher, so however
+        // much of it there is, it never holds up the other queues. Tiles are prefetched on the
+        // image queue instead (see NetworkImageManager), since Volley only merges a request with
+        // an identical one in flight on the same queue.
+        public final RequestQueue backgroundRequestQueue;
 
         Manager(Context context) {
-            requestQueue = Volley.newRequestQueue(context.getApplicationContext());
+            // This is what Volley.newRequestQueue does, but with a bigger disk cache since API
+            // responses are now kept around for revalidation.
+            File cacheDir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+            Network network = new BasicNetwork(HttpEngine.newHttpStack());
+            requestQueue = new RequestQueue(new DiskBasedCache(cacheDir, CACHE_SIZE_BYTES), network);
+            requestQueue.start();
+
+            File imageCacheDir = new File(context.getApplicationContext().getCacheDir(), IMAGE_CACHE_DIR);
+            imageRequestQueue = new RequestQueue(new DiskBasedCache(imageCacheDir, IMAGE_CACHE_SIZE_BYTES),
+                    network, IMAGE_THREAD_POOL_SIZE);
+            imageRequestQueue.start();
+
+            backgroundRequestQueue = new RequestQueue(new NoCache(), network, BACKGROUND_THREAD_POOL_SIZE);
+            backgroundRequestQueue.start();
         }
 
         public static void setupInstance(Context context) {
@@ -54,22 +141,10 @@ public class HttpRequest {
     }
 
     public static class ImpressionRequest {
-        // This class is just for sending impressions. We don't need callbacks, but Volley
-        // requires them to be passed in, so we just pass in empty ones.
-        // i.e. "Fire and Forget"
-        public static Request get(String url) {
-            StringRequest req = new StringRequest(Request.Method.GET, url, new Response.Listener<String>() {
-                @Override
-                public void onResponse(String response) {
-                }
-            }, new Response.ErrorListener() {
-                @Override
-                public void onErrorResponse(VolleyError error) {
-                }
-            });
-
-            Manager.instance.requestQueue.add(req);
-            return req;
+        // This class is just for sending impressions. They go through BeaconQueue, which keeps
+        // them until they're sent, rather than through the request queue.
+        public static void get(String url) {
+            BeaconQueue.getInstance().add(url);
         }
     }
 
@@ -82,11 +157,258 @@ public class HttpRequest {
             Manager.instance.requestQueue.add(req);
             return req;
         }
+
+        // For responses nobody is waiting on yet.
+        public static Request prefetch(String url,
+                                       Response.Listener<String> responseListener,
+                                       Response.ErrorListener errorListener) {
+
+            StringRequest req = new StringRequest(Request.Method.GET, url, responseListener, errorListener) {
+                @Override
+                public Priority getPriority() {
+                    return Priority.LOW;
+                }
+            };
+
+            req.setShouldCache(false);
+            Manager.instance.backgroundRequestQueue.add(req);
+            return req;
+        }
     }
 
-    public static class JsonRequest extends Request<JSONObject> {
+    /**
+     * A GET request which shares its network call with any identical request already in flight.
+     * Fragments get recreated on rotation and connectivity listeners fire onConnect() repeatedly,
+     * so the same URL is often requested several times at once. Only one InFlightRequest is
+     * actually added to the queue; it parses the response once and hands it to every caller.
+     * Each caller still gets its own request object, which can be cancelled on its own.
+     */
+    abstract static class SharedRequest<T> extends Request<T> {
+        private InFlightRequest<T> mInFlightRequest;
+
+        SharedRequest(int method, String url, Response.ErrorListener errorListener) {
+            super(method, url, errorListener);
+        }
+
+        static <T> Request<T> add(SharedRequest<T> request) {
+            InFlightRequest.join(request);
+            return request;
+        }
+
+        // Requests with the same key must produce the same result.
+        String getSharedKey() {
+            return getClass().getName() + " " + getUrl();
+        }
+
+        RequestQueue getRequestQueue() {
+            return Manager.instance.requestQueue;
+        }
+
+        @Override
+        protected abstract Response<T> parseNetworkResponse(NetworkResponse response);
+
+        @Override
+        protected abstract void deliverResponse(T response);
+
+        @Override
+        public void cancel() {
+            super.cancel();
+
+            if (mInFlightRequest != null) {
+                mInFlightRequest.leave(this);
+            }
+        }
+    }
+
+    private static class InFlightRequest<T> extends Request<T> {
+        private static final Map<String, InFlightRequest<?>> IN_FLIGHT = new HashMap<>();
+
+        private final String mKey;
+        private final SharedRequest<T> mFirstRequest;
+        private final ArrayList<SharedRequest<T>> mRequests = new ArrayList<>();
+
+        private InFlightRequest(SharedRequest<T> firstRequest) {
+            super(firstRequest.getMethod(), firstRequest.getUrl(), null);
+            mKey = firstRequest.getSharedKey();
+            mFirstRequest = firstRequest;
+            setRetryPolicy(firstRequest.getRetryPolicy());
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> void join(SharedRequest<T> request) {
+            synchronized (IN_FLIGHT) {
+                // The key includes the request class, so the cast is safe.
+                InFlightRequest<T> inFlightRequest = (InFlightRequest<T>) IN_FLIGHT.get(request.getSharedKey());
+
+                if (inFlightRequest == null) {
+                    inFlightRequest = new InFlightRequest<>(request);
+                    IN_FLIGHT.put(inFlightRequest.mKey, inFlightRequest);
+                    request.getRequestQueue().add(inFlightRequest);
+                }
+
+                inFlightRequest.mRequests.add(request);
+                request.mInFlightRequest = inFlightRequest;
+            }
+        }
+
+        void leave(SharedRequest<T> request) {
+            synchronized (IN_FLIGHT) {
+                mRequests.remove(request);
+
+                if (mRequests.isEmpty()) {
+                    // Nobody is waiting for this anymore.
+                    land();
+                    super.cancel();
+                }
+            }
+        }
+
+        // Once the first response has been delivered (which may be a stale one from the cache
+        // while the refresh is still going) new callers start a new request instead of joining.
+        private ArrayList<SharedRequest<T>> land() {
+            synchronized (IN_FLIGHT) {
+                if (IN_FLIGHT.get(mKey) == this) {
+                    IN_FLIGHT.remove(mKey);
+                }
+
+                return new ArrayList<>(mRequests);
+            }
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            return mFirstRequest.getHeaders();
+        }
+
+        @Override
+        public Priority getPriority() {
+            return mFirstRequest.getPriority();
+        }
+
+        @Override
+        protected Response<T> parseNetworkResponse(NetworkResponse response) {
+            return mFirstRequest.parseNetworkResponse(response);
+        }
+
+        @Override
+        protected void deliverResponse(T response) {
+            for (SharedRequest<T> request : land()) {
+                if (!request.isCanceled()) {
+                    request.deliverResponse(response);
+                }
+            }
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            for (SharedRequest<T> request : land()) {
+                if (!request.isCanceled()) {
+                    request.deliverError(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a model from a JSON response body.
+     */
+    public interface ModelParser<T> {
+        T parse(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * A ModelParser which also needs to know whether the response just came from the network,
+     * or is the same body again from the disk cache (or from a 304 Not Modified).
+     */
+    public interface NetworkModelParser<T> extends ModelParser<T> {
+        T parse(JsonReader reader, boolean isFromNetwork) throws IOException;
+    }
+
+    /**
+     * A GET request which streams the response body straight into models with a ModelParser.
+     * Parsing happens on Volley's network thread, so listeners only get the finished result and
+     * no intermediate JSONObject tree is ever built.
+     */
+    public static class ModelRequest<T> extends SharedRequest<T> {
+        private final ModelParser<T> mParser;
+        private final Response.Listener<T> mListener;
+        private final CachePolicy mCachePolicy;
+
+        public ModelRequest(String url,
+                            CachePolicy cachePolicy,
+                            ModelParser<T> parser,
+                            Response.Listener<T> responseListener,
+                            Response.ErrorListener errorListener) {
+
+            super(Request.Method.GET, url, errorListener);
+
+            mParser = parser;
+            mListener = responseListener;
+            mCachePolicy = cachePolicy;
+        }
+
+        public static <T> Request get(String url,
+                                      Map<String, String> params,
+                                      CachePolicy cachePolicy,
+                                      ModelParser<T> parser,
+                                      Response.Listener<T> responseListener,
+                                      Response.ErrorListener errorListener) {
+
+            String queryUrl = HttpRequest.addQueryParams(url, params);
+            ModelRequest<T> req = new ModelRequest<>(queryUrl, cachePolicy, parser, responseListener, errorListener);
+
+            // Every listener gets the same result, so they must not modify it.
+            return SharedRequest.add(req);
+        }
+
+        @Override
+        String getSharedKey() {
+            // Different parsers can read the same URL into different models.
+            return mParser.getClass().getName() + " " + getUrl();
+        }
+
+        @Override
+        protected Response<T> parseNetworkResponse(NetworkResponse response) {
+            JsonReader reader = null;
+
+            try {
+                reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(response.data),
+                        HttpHeaderParser.parseCharset(response.headers)));
+
+                T result;
+                if (mParser instanceof NetworkModelParser) {
+                    // Volley leaves the network time at 0 for a cache hit.
+                    boolean isFromNetwork = !response.notModified && response.networkTimeMs > 0;
+                    result = ((NetworkModelParser<T>) mParser).parse(reader, isFromNetwork);
+                } else {
+                    result = mParser.parse(reader);
+                }
+
+                return Response.success(result, HttpRequest.parseCacheHeaders(response, mCachePolicy));
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                // JsonReader throws IllegalStateException when the JSON isn't shaped like we expect.
+                return Response.error(new ParseError(e));
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // Nothing to do, it's a byte array.
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void deliverResponse(T response) {
+            mListener.onResponse(response);
+        }
+    }
+
+    public static class JsonRequest extends SharedRequest<JSONObject> {
         private final Response.Listener<JSONObject> mListener;
         private final Map<String, String> mHeaders;
+        private final CachePolicy mCachePolicy;
 
         public JsonRequest(int method,
                            String url,
@@ -94,20 +416,48 @@ public class HttpRequest {
                            Response.Listener<JSONObject> responseListener,
                            Response.ErrorListener errorListener) {
 
+            this(method, url, headers, null, responseListener, errorListener);
+        }
+
+        public JsonRequest(int method,
+                           String url,
+                           Map<String, String> headers,
+                           CachePolicy cachePolicy,
+                           Response.Listener<JSONObject> responseListener,
+                           Response.ErrorListener errorListener) {
+
             super(method, url, errorListener);
 
             mListener = responseListener;
             mHeaders = headers == null ? new HashMap<String, String>() : headers;
+            mCachePolicy = cachePolicy;
+        }
+
+        public static Request get(String url,
+                               Map<String, String> params,
+                               Map<String, String> headers,
+                               Response.Listener<JSONObject> responseListener,
+                               Response.ErrorListener errorListener) {
+
+            return get(url, params, headers, null, responseListener, errorListener);
         }
 
         public static Request get(String url,
                                Map<String, String> params,
                                Map<String, String> headers,
+                               CachePolicy cachePolicy,
                                Response.Listener<JSONObject> responseListener,
                                Response.ErrorListener errorListener) {
 
             String queryUrl = HttpRequest.addQueryParams(url, params);
-            JsonRequest req = new JsonRequest(Request.Method.GET, queryUrl, headers, responseListener, errorListener);
+            JsonRequest req = new JsonRequest(Request.Method.GET, queryUrl, headers, cachePolicy, responseListener, errorListener);
+
+            if (headers == null || headers.isEmpty()) {
+                // Every listener gets the same JSONObject, so they must not modify it.
+                return SharedRequest.add(req);
+            }
+
+            // Requests with custom headers (eg. authorization) are never shared.
             Manager.instance.requestQueue.add(req);
             return req;
         }
@@ -135,7 +485,7 @@ public class HttpRequest {
                 String jsonString = new String(response.data,
                         HttpHeaderParser.parseCharset(response.headers));
                 return Response.success(new JSONObject(jsonString),
-                        HttpHeaderParser.parseCacheHeaders(response));
+                        HttpRequest.parseCacheHeaders(response, mCachePolicy));
             } catch (UnsupportedEncodingException e) {
                 return Response.error(new ParseError(e));
             } catch (JSONException je) {
@@ -1,6 +1,9 @@
 package org.kpcc.android;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.preference.PreferenceManager;
 
@@ -9,6 +12,10 @@ import com.flurry.android.FlurryAgent;
 import com.parse.Parse;
 import com.parse.ParseInstallation;
 
+import org.kpcc.api.ISODateParser;
+
+import java.util.TimeZone;
+
 import io.fabric.sdk.android.Fabric;
 import uk.co.chrisjenx.calligraphy.CalligraphyConfig;
 
@@ -24,10 +31,20 @@ public class KPCCApplication extends Application {
         }
 
         // The order of these is important.
+        HttpEngine.setup();
         AppConnectivityManager.setupInstance(this);
         AppConfiguration.setupInstance(this);
         DataManager.setupInstance(this);
+        AdIdentityProvider.setupInstance(this);
+        EpisodeStore.setupInstance(this);
+        EpisodeDownloadManager.setupInstance(this);
+        AudioCache.setupInstance(this);
+        StreamManager.PlaybackResources.setupInstance();
+        PlaybackMetrics.setupInstance(this);
+        UpdateScheduler.setupInstance(this);
         HttpRequest.Manager.setupInstance(this);
+        BeaconQueue.setupInstance(this);
+        ProgramsManager.instance.restore(this);
         BaseAlarmManager.setupInstance(this);
 
         Parse.initialize(this,
@@ -54,4 +71,15 @@ public class KPCCApplication extends Application {
 
         PreferenceManager.setDefaultValues(this, R.xml.preferences, true);
     }
+
+    public static class TimeZoneReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) return;
+
+            // The framework does this too, but this may run first.
+            TimeZone.setDefault(null);
+            ISODateParser.refreshTimeZone();
+        }
+    }
 }
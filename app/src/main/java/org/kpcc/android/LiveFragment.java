@@ -24,12 +24,8 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 
 import com.android.volley.Request;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
 import com.android.volley.toolbox.NetworkImageView;
 
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.kpcc.api.ScheduleOccurrence;
 
 import java.util.Locale;
@@ -368,6 +364,7 @@ public class LiveFragment extends Fragment {
             public void onBind() {
                 // When returning to this fragment, this will probably be run right away and setup the view state.
                 initAudio();
+                warmUpLiveStream();
 
                 // This must come after calling initAudio(), otherwise the play button could be
                 // clicked before we have the chance to hide it if necessary.
@@ -391,6 +388,7 @@ public class LiveFragment extends Fragment {
                 // is back, so we'll just restart it.
                 if (mScheduleUpdater != null) mScheduleUpdater.start();
                 mAudioButtonManager.hideError();
+                warmUpLiveStream();
             }
 
             @Override
@@ -476,18 +474,56 @@ public class LiveFragment extends Fragment {
      *
      */
     private synchronized void updateSchedule() {
+        // Seeking around the live window is answered from the loaded schedule.
+        long uts = getScheduleTimestamp();
+        if (ScheduleTimeline.instance.isFresh(uts)) {
+            showSchedule(ScheduleTimeline.instance.find(uts));
+            return;
+        }
+
         if (mScheduleUpdaterMutex.get()) return;
         mScheduleUpdaterMutex.set(true);
 
-        long uts;
+        mRequest = ScheduleTimeline.instance.load(uts, new ScheduleResponseHandler());
+    }
+
+    private long getScheduleTimestamp() {
         LivePlayer livePlayer = getLivePlayer();
         if (livePlayer == null) {
-            uts = System.currentTimeMillis();
+            return System.currentTimeMillis();
         } else {
-            uts = livePlayer.getPlaybackTimestamp();
+            return livePlayer.getPlaybackTimestamp();
+        }
+    }
+
+    private void showSchedule(ScheduleOccurrence schedule) {
+        // If this is null, we want to set the live seek schedule to null as well.
+        mLiveSeekViewManager.setSchedule(schedule);
+        mLiveSeekViewManager.setSeekBarMaxFromSchedule();
+
+        // It may be null, if nothing is on right now according to the API.
+        if (schedule == null) {
+            setDefaultScheduleValues();
+            return;
         }
 
-        mRequest = ScheduleOccurrence.Client.getAtTimestamp(uts / 1000, new ScheduleResponseHandler(), new ScheduleErrorHandler());
+        // Don't make a network request for the image if it's the same program.
+        ScheduleOccurrence previousSchedule = getCurrentSchedule();
+        boolean didChangeProgram = previousSchedule == null || !previousSchedule.getProgramSlug().equals(schedule.getProgramSlug());
+        setCurrentSchedule(schedule);
+
+        if (didChangeProgram) {
+            NetworkImageManager.getInstance().setBitmap(getActivity(), mBackground, schedule.getProgramSlug());
+
+            if (mNotificationBuilder != null) {
+                updateNotificationWithCurrentScheduleData();
+                sendNotification();
+            }
+        }
+
+        String title = schedule.getTitle();
+        mTitle.setTextSize(Math.min(Math.max(55 - title.length(), 20), 50));
+        mTitle.setText(title);
     }
 
     /**
@@ -541,6 +577,19 @@ public class LiveFragment extends Fragment {
         }
     }
 
+    // So the stream starts sooner if play is pressed. Segments are only fetched on Wi-Fi, since
+    // play may never be pressed.
+    private void warmUpLiveStream() {
+        LivePlayer livePlayer = getLivePlayer();
+        if (livePlayer == null || !livePlayer.isIdle() ||
+                !AppConnectivityManager.getInstance().isConnectedToNetwork()) {
+            return;
+        }
+
+        streamBundle.warmUp(AppConnectivityManager.getInstance().isConnectedToUnmeteredNetwork());
+        streamBundle.prefetchPreroll();
+    }
+
     private void resetLiveState() {
         mAudioButtonManager.reset();
         mLiveSeekViewManager.reset();
@@ -757,43 +806,27 @@ public class LiveFragment extends Fragment {
     /**
      *
      */
-    private class ScheduleResponseHandler implements Response.Listener<JSONObject> {
-        @Override // Response.Listener
-        public void onResponse(JSONObject response) {
+    private class ScheduleResponseHandler implements ScheduleTimeline.OnScheduleLoadListener {
+        @Override // ScheduleTimeline.OnScheduleLoadListener
+        public void onScheduleLoaded() {
             try {
-                JSONObject jsonSchedule = response.getJSONObject(ScheduleOccurrence.SINGULAR_KEY);
-                ScheduleOccurrence schedule = ScheduleOccurrence.buildFromJson(jsonSchedule);
-
-                // If this is null, we want to set the live seek schedule to null as well.
-                mLiveSeekViewManager.setSchedule(schedule);
-                mLiveSeekViewManager.setSeekBarMaxFromSchedule();
+                // The player may have moved while this was loading.
+                showSchedule(ScheduleTimeline.instance.find(getScheduleTimestamp()));
+            } finally {
+                mScheduleUpdaterMutex.set(false);
+            }
+        }
 
-                // It may be null, if nothing is on right now according to the API.
-                if (schedule == null) {
+        @Override // ScheduleTimeline.OnScheduleLoadListener
+        public void onScheduleError() {
+            try {
+                // An old schedule is better than nothing, eg. when seeking while offline.
+                long uts = getScheduleTimestamp();
+                if (ScheduleTimeline.instance.covers(uts)) {
+                    showSchedule(ScheduleTimeline.instance.find(uts));
+                } else {
                     setDefaultScheduleValues();
-                    return;
-                }
-
-                // Don't make a network request for the image if it's the same program.
-                ScheduleOccurrence previousSchedule = getCurrentSchedule();
-                boolean didChangeProgram = previousSchedule == null || !previousSchedule.getProgramSlug().equals(schedule.getProgramSlug());
-                setCurrentSchedule(schedule);
-
-                if (didChangeProgram) {
-                    NetworkImageManager.getInstance().setBitmap(getActivity(), mBackground, schedule.getProgramSlug());
-
-                    if (mNotificationBuilder != null) {
-                        updateNotificationWithCurrentScheduleData();
-                        sendNotification();
-                    }
                 }
-
-                String title = schedule.getTitle();
-                mTitle.setTextSize(Math.min(Math.max(55 - title.length(), 20), 50));
-                mTitle.setText(title);
-
-            } catch (JSONException e) {
-                setDefaultScheduleValues();
             } finally {
                 mScheduleUpdaterMutex.set(false);
             }
@@ -801,18 +834,6 @@ public class LiveFragment extends Fragment {
     }
 
 
-    /**
-     *
-     */
-    private class ScheduleErrorHandler implements Response.ErrorListener {
-        @Override // Response.ErrorListener
-        public void onErrorResponse(VolleyError error) {
-            setDefaultScheduleValues();
-            mScheduleUpdaterMutex.set(false);
-        }
-    }
-
-
     /**
      *
      */
@@ -835,7 +856,7 @@ public class LiveFragment extends Fragment {
             LivePlayer livePlayer = getLivePlayer();
             if (livePlayer != null && mLiveSeekBarUpdater == null) {
                 mLiveSeekBarUpdater = new PeriodicBackgroundUpdater(
-                        new PeriodicBackgroundUpdater.ProgressBarRunner(livePlayer), LIVE_SEEKBAR_REFRESH_INTERVAL);
+                        new PeriodicBackgroundUpdater.ProgressBarRunner(livePlayer, LIVE_SEEKBAR_REFRESH_INTERVAL), LIVE_SEEKBAR_REFRESH_INTERVAL);
             }
 
             mLiveSeekBarUpdater.start();
@@ -943,7 +964,7 @@ public class LiveFragment extends Fragment {
 
             PrerollPlayer prerollPlayer = getPrerollPlayer();
             if (prerollPlayer != null && mPrerollSeekBarUpdater == null) {
-                mPrerollSeekBarUpdater = new PeriodicBackgroundUpdater(new PeriodicBackgroundUpdater.ProgressBarRunner(prerollPlayer), 100);
+                mPrerollSeekBarUpdater = new PeriodicBackgroundUpdater(new PeriodicBackgroundUpdater.ProgressBarRunner(prerollPlayer, 100), 100);
             }
 
             mPrerollSeekBarUpdater.start();
@@ -43,6 +43,8 @@ public class LivePlayer extends Stream {
 
     private final static int JUMP_INTERVAL_SEC = 30;
     final static int JUMP_INTERVAL_MS = JUMP_INTERVAL_SEC*1000;
+    // How far behind live the stream may start after a preroll, before it's moved up to live.
+    private final static long MAX_BEHIND_LIVE_AFTER_PREROLL_MS = 10 * 1000;
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Static Functions
@@ -81,8 +83,11 @@ public class LivePlayer extends Stream {
     LivePlayer(final Context context) {
         super(context);
 
-        AudioPlayer.RendererBuilder builder = new HlsRendererBuilder(context, USER_AGENT, LivePlayer.getStreamUrl());
-        setAudioPlayer(new AudioPlayer(builder));
+        BufferPolicy bufferPolicy = BufferPolicy.forStream(context, BufferPolicy.StreamType.LIVE);
+        AudioPlayer.RendererBuilder builder = new HlsRendererBuilder(context, USER_AGENT,
+                LivePlayer.getStreamUrl(), bufferPolicy);
+        setAudioPlayer(new AudioPlayer(builder, bufferPolicy.getMinBufferMs(), bufferPolicy.getMinRebufferMs()),
+                PlaybackMetrics.Kind.LIVE);
         getAudioPlayer().setPlayWhenReady(false);
 
         getAudioPlayer().addListener(this);
@@ -133,6 +138,12 @@ public class LivePlayer extends Stream {
         super.release();
     }
 
+    @Override // Stream
+    void onPlayerPlaying() {
+        LiveStreamPrefetcher.instance.onAudioStarted();
+        super.onPlayerPlaying();
+    }
+
     @Override
     void seekTo(long pos) {
         super.seekTo(pos);
@@ -156,6 +167,30 @@ public class LivePlayer extends Stream {
         seekTo(0);
     }
 
+    // The stream is prepared while the preroll plays (see LiveStreamBundle), so by now it's
+    // buffered and its decoder is set up. Preparing it again would throw all of that away and
+    // leave a gap after the preroll, so just start it. It was prepared at the live edge of when
+    // the preroll started though, so if the preroll was long it's moved up to live first.
+    void playAfterPreroll() {
+        if (getAudioPlayer() == null) return;
+
+        if (isIdle() || isEnded()) {
+            prepareAndStart();
+            return;
+        }
+
+        if (!requestAudioFocus()) {
+            getAudioEventListener().onError();
+            return;
+        }
+
+        if (relativeMsBehindLive() > MAX_BEHIND_LIVE_AFTER_PREROLL_MS) {
+            seekToLive();
+        }
+
+        play();
+    }
+
     void skipBackward() {
         if (canSeekBackward()) {
             seekTo(getCurrentPosition() - JUMP_INTERVAL_MS);
@@ -214,7 +249,13 @@ public class LivePlayer extends Stream {
     ////////////////////////////////////////////////////////////////////////////////////////////////
     protected class PrerollCompleteCallback {
         protected void onPrerollComplete() {
-            prepareAndStart();
+            playAfterPreroll();
+
+            // Only one decoder is needed from now on.
+            PrerollPlayer prerollPlayer = getStreamManager() == null ? null : getStreamManager().getCurrentPrerollPlayer();
+            if (prerollPlayer != null) {
+                prerollPlayer.release();
+            }
         }
     }
 
@@ -38,43 +38,61 @@ class LiveStreamBundle {
         return mPrerollPlayer;
     }
 
-    public void playWithPrerollAttempt() {
-        // If they just installed the app (less than 10 minutes ago), and have never played the live
-        // stream, don't play preroll.
-        // Otherwise do the normal preroll flow.
-        final long now = System.currentTimeMillis();
+    // Gets the live stream ready to play, so it starts sooner when play is pressed.
+    public void warmUp(boolean includeSegments) {
+        LiveStreamPrefetcher.instance.warmUp(mContext, LivePlayer.getStreamUrl(), includeSegments);
+    }
+
+    // Gets the ad ready, so preroll starts as soon as play is pressed.
+    public void prefetchPreroll() {
+        if (shouldAttemptPreroll()) {
+            PrerollManager.getInstance().prefetch(mContext);
+        }
+    }
 
+    public void playWithPrerollAttempt() {
         boolean hasPlayedLiveStream = DataManager.getInstance().getHasPlayedLiveStream();
-        boolean installedRecently = KPCCApplication.INSTALLATION_TIME > (now - PrerollManager.INSTALL_GRACE);
-        boolean heardPrerollRecently = PrerollManager.getInstance().getLastPlay() > (now - PrerollManager.PREROLL_THRESHOLD);
 
-        if ((AppConfiguration.getInstance().isDebug && !AppConfiguration.getInstance().getConfigBool("preroll.enabled")) ||
-                (!hasPlayedLiveStream && installedRecently) ||
-                heardPrerollRecently) {
+        LiveStreamPrefetcher.instance.onPlayRequested(LivePlayer.getStreamUrl());
+
+        // Only an ad that's already been fetched is played. Waiting for one would hold up the
+        // stream, so if there isn't one, go straight to live (and fetch one for next time).
+        PrerollManager.Decision decision = shouldAttemptPreroll() ?
+                PrerollManager.getInstance().takeDecision() : null;
+
+        if (decision == null || decision.getAudioUrl() == null) {
             // Skipping Preroll
             mLivePlayer.prepareAndStart();
         } else {
             mPrerollPlayer.getAudioEventListener().onPreparing();
+            // The stream is going to play after the preroll, so get it ready while waiting.
+            warmUp(true);
 
-            // Normal preroll flow (preroll still may not play, based on preroll response)
-            PrerollManager.getInstance().getPrerollData(mContext, new PrerollManager.PrerollCallbackListener() {
-                @Override
-                public void onPrerollResponse(final PrerollManager.PrerollData prerollData) {
-                    if (prerollData == null || prerollData.getAudioUrl() == null) {
-                        mLivePlayer.prepareAndStart();
-                    } else {
-                        mPrerollPlayer.setupPreroll(prerollData.getAudioUrl());
-                        mPrerollPlayer.getAudioEventListener().onPrerollData(prerollData);
-                        mPrerollPlayer.prepareAndStart();
-                        PrerollManager.getInstance().setLastPlayToNow();
-                        mLivePlayer.prepare();
-                    }
-                }
-            });
+            mPrerollPlayer.setupPreroll(decision.getAudioUrl());
+            mPrerollPlayer.getAudioEventListener().onPrerollData(decision.getPrerollData());
+            mPrerollPlayer.prepareAndStart();
+            PrerollManager.getInstance().setLastPlayToNow();
+            mLivePlayer.prepare();
         }
 
         if (!hasPlayedLiveStream) {
             DataManager.getInstance().setHasPlayedLiveStream(true);
         }
+
+        prefetchPreroll();
+    }
+
+    // If they just installed the app (less than 10 minutes ago), and have never played the live
+    // stream, don't play preroll. Don't play it if they've heard one recently either.
+    private boolean shouldAttemptPreroll() {
+        final long now = System.currentTimeMillis();
+
+        boolean hasPlayedLiveStream = DataManager.getInstance().getHasPlayedLiveStream();
+        boolean installedRecently = KPCCApplication.INSTALLATION_TIME > (now - PrerollManager.INSTALL_GRACE);
+        boolean heardPrerollRecently = PrerollManager.getInstance().getLastPlay() > (now - PrerollManager.PREROLL_THRESHOLD);
+
+        return !((AppConfiguration.getInstance().isDebug && !AppConfiguration.getInstance().getConfigBool("preroll.enabled")) ||
+                (!hasPlayedLiveStream && installedRecently) ||
+                heardPrerollRecently);
     }
 }
@@ -0,0 +1,246 @@
+package org.kpcc.android;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriLoadable;
+import com.google.android.exoplayer.util.UriUtil;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Gets the live stream ready before play is pressed: the host is looked up, the playlist is
+// fetched and parsed, and the first segments are put in the live AudioCache. HlsRendererBuilder
+// then starts from the prefetched playlist instead of fetching it again.
+//
+// It also measures the time from pressing play to hearing audio, with and without the warm up.
+class LiveStreamPrefetcher {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static final LiveStreamPrefetcher instance = new LiveStreamPrefetcher();
+    private static final String TAG = "LiveStreamPrefetcher";
+    // A master playlist only lists the streams, so it's good for a while. A media playlist lists
+    // the latest segments, so it's only good for about as long as a segment.
+    private static final long MASTER_PLAYLIST_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MEDIA_PLAYLIST_MAX_AGE_MS = TimeUnit.SECONDS.toMillis(5);
+    // HlsChunkSource starts live playback this many segments from the end. The playlist may get
+    // a new segment before play is pressed, so the one after it is fetched too.
+    private static final int LIVE_START_SEGMENTS_FROM_END = 3;
+    private static final int SEGMENTS_TO_PREFETCH = 2;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mIsWarmingUp = new AtomicBoolean(false);
+    // Replaced as a whole, never changed.
+    private volatile Prefetched mPrefetched;
+
+    // These are only used on the main thread.
+    private long mPlayRequestedAtMs;
+    private boolean mPlayRequestedWarm;
+    private final Latency mWarmLatency = new Latency();
+    private final Latency mColdLatency = new Latency();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private LiveStreamPrefetcher() {
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Fetching segments costs more than the playlist, so only do it when playing is likely
+    // (eg. preroll is playing) or the network is free.
+    void warmUp(Context context, final String url, final boolean includeSegments) {
+        // This way it's cached for the player even if the playlist fails.
+        HttpEngine.warmUpDns(Uri.parse(url).getHost());
+
+        Prefetched prefetched = mPrefetched;
+        if (prefetched != null && prefetched.isFresh(url) && (!includeSegments || prefetched.hasFreshSegments())) {
+            return;
+        }
+
+        if (mIsWarmingUp.getAndSet(true)) {
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prefetch(appContext, url, includeSegments);
+                } finally {
+                    mIsWarmingUp.set(false);
+                }
+            }
+        });
+    }
+
+    // The prefetched playlist for this URL, or null if there isn't a recent enough one.
+    HlsPlaylist getPlaylist(String url) {
+        Prefetched prefetched = mPrefetched;
+        return prefetched != null && prefetched.isFresh(url) ? prefetched.playlist : null;
+    }
+
+    void onPlayRequested(String url) {
+        mPlayRequestedAtMs = SystemClock.elapsedRealtime();
+        mPlayRequestedWarm = getPlaylist(url) != null;
+    }
+
+    // The first audio after play was pressed, from preroll or the stream.
+    void onAudioStarted() {
+        if (mPlayRequestedAtMs == 0) {
+            return;
+        }
+
+        long latencyMs = SystemClock.elapsedRealtime() - mPlayRequestedAtMs;
+        mPlayRequestedAtMs = 0;
+
+        Latency latency = mPlayRequestedWarm ? mWarmLatency : mColdLatency;
+        latency.add(latencyMs);
+
+        Log.d(TAG, String.format(Locale.ENGLISH,
+                "Play to audio: %d ms (%s). Average warm: %d ms (%d), cold: %d ms (%d)",
+                latencyMs, mPlayRequestedWarm ? "warm" : "cold",
+                mWarmLatency.getAverageMs(), mWarmLatency.count,
+                mColdLatency.getAverageMs(), mColdLatency.count));
+    }
+
+    // Runs on the prefetch thread.
+    private void prefetch(Context context, String url, boolean includeSegments) {
+        try {
+            HlsPlaylist playlist = load(context, url);
+            long loadedAtMs = System.currentTimeMillis();
+            mPrefetched = new Prefetched(url, playlist, false, loadedAtMs);
+
+            if (includeSegments && prefetchSegments(context, playlist)) {
+                mPrefetched = new Prefetched(url, playlist, true, loadedAtMs);
+            }
+        } catch (IOException e) {
+            // Nothing is lost, the player will just fetch everything itself.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private HlsPlaylist load(Context context, String url) throws IOException, InterruptedException {
+        // The connection is kept alive afterwards, so the player's requests skip the handshake.
+        UriLoadable<HlsPlaylist> loadable = new UriLoadable<>(url,
+                HttpEngine.newDataSource(context, null, Stream.USER_AGENT), new HlsPlaylistParser());
+        loadable.load();
+        return loadable.getResult();
+    }
+
+    // Reads the segments that playback will start from into the live AudioCache.
+    private boolean prefetchSegments(Context context, HlsPlaylist playlist) throws IOException, InterruptedException {
+        AudioCache cache = AudioCache.getLiveInstance();
+        if (cache == null) {
+            return false;
+        }
+
+        HlsMediaPlaylist mediaPlaylist;
+        if (playlist.type == HlsPlaylist.TYPE_MEDIA) {
+            mediaPlaylist = (HlsMediaPlaylist) playlist;
+        } else {
+            HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) playlist;
+
+            // Otherwise which one plays depends on the bandwidth.
+            if (masterPlaylist.variants.size() != 1) {
+                return false;
+            }
+
+            HlsPlaylist variantPlaylist = load(context,
+                    UriUtil.resolve(masterPlaylist.baseUri, masterPlaylist.variants.get(0).url));
+            if (variantPlaylist.type != HlsPlaylist.TYPE_MEDIA) {
+                return false;
+            }
+
+            mediaPlaylist = (HlsMediaPlaylist) variantPlaylist;
+        }
+
+        int segmentCount = mediaPlaylist.segments.size();
+        int first = mediaPlaylist.live ? Math.max(segmentCount - LIVE_START_SEGMENTS_FROM_END, 0) : 0;
+        DataSource dataSource = cache.wrapSegments(HttpEngine.newDataSource(context, null, Stream.USER_AGENT));
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        for (int i = first; i < Math.min(first + SEGMENTS_TO_PREFETCH, segmentCount); i++) {
+            HlsMediaPlaylist.Segment segment = mediaPlaylist.segments.get(i);
+
+            // The same as HlsChunkSource asks for, so it's found in the cache.
+            DataSpec dataSpec = new DataSpec(UriUtil.resolveToUri(mediaPlaylist.baseUri, segment.url),
+                    segment.byterangeOffset, segment.byterangeLength, null);
+
+            try {
+                dataSource.open(dataSpec);
+                while (dataSource.read(buffer, 0, buffer.length) != C.RESULT_END_OF_INPUT) {
+                    // Just reading it puts it in the cache.
+                }
+            } finally {
+                dataSource.close();
+            }
+        }
+
+        return segmentCount > 0;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Classes
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private static class Prefetched {
+        final String url;
+        final HlsPlaylist playlist;
+        final boolean hasSegments;
+        final long loadedAtMs;
+
+        Prefetched(String url, HlsPlaylist playlist, boolean hasSegments, long loadedAtMs) {
+            this.url = url;
+            this.playlist = playlist;
+            this.hasSegments = hasSegments;
+            this.loadedAtMs = loadedAtMs;
+        }
+
+        boolean isFresh(String url) {
+            long maxAgeMs = playlist.type == HlsPlaylist.TYPE_MASTER ?
+                    MASTER_PLAYLIST_MAX_AGE_MS : MEDIA_PLAYLIST_MAX_AGE_MS;
+            return this.url.equals(url) && System.currentTimeMillis() - loadedAtMs < maxAgeMs;
+        }
+
+        // New segments keep being added, so the prefetched ones are soon not the ones played.
+        boolean hasFreshSegments() {
+            return hasSegments && System.currentTimeMillis() - loadedAtMs < MEDIA_PLAYLIST_MAX_AGE_MS;
+        }
+    }
+
+    private static class Latency {
+        int count;
+        long totalMs;
+
+        void add(long latencyMs) {
+            count++;
+            totalMs += latencyMs;
+        }
+
+        long getAverageMs() {
+            return count == 0 ? 0 : totalMs / count;
+        }
+    }
+}
@@ -144,6 +144,25 @@ public class MainActivity extends AppCompatActivity {
                         }
                     }
             );
+
+            if (AppConfiguration.getInstance().isDebug) {
+                Navigation.getInstance().addItem(R.string.playback_metrics, R.drawable.menu_settings, PlaybackMetricsFragment.STACK_TAG,
+                        new Navigation.NavigationItemSelectedCallback() {
+                            @Override
+                            public void perform(FragmentManager fm, boolean addToBackStack) {
+                                FragmentTransaction trans = fm.beginTransaction();
+                                trans.setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN);
+                                trans.replace(R.id.container, new PlaybackMetricsFragment(), PlaybackMetricsFragment.STACK_TAG);
+
+                                if (addToBackStack) {
+                                    trans.addToBackStack(PlaybackMetricsFragment.STACK_TAG);
+                                }
+
+                                trans.commit();
+                            }
+                        }
+                );
+            }
         }
 
         setContentView(R.layout.activity_main);
@@ -2,26 +2,54 @@ package org.kpcc.android;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
 import android.support.v4.util.LruCache;
+import android.util.DisplayMetrics;
 import android.view.View;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.ImageView;
 
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.ImageLoader;
 import com.android.volley.toolbox.NetworkImageView;
 
+import org.kpcc.api.Program;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
 class NetworkImageManager {
     private final static NetworkImageManager instance = new NetworkImageManager();
     private static final String PROGRAM_TILE_URL = "http://media.scpr.org/iphone/program-images/program_tile_%s@2x.jpg";
+    private static final String TILE_KEY_PREFIX = "tile:";
+    // Tiles hardly ever change, and the server doesn't say how long to keep them.
+    private static final HttpRequest.CachePolicy TILE_CACHE_POLICY = new HttpRequest.CachePolicy(
+            TimeUnit.DAYS.toMillis(1), TimeUnit.DAYS.toMillis(30));
+    // How many evicted tiles to keep around to decode new ones into.
+    private static final int POOL_SIZE = 3;
     private final ImageLoader mImageLoader;
+    private final BitmapLruCache mCache;
+    private final BitmapPool mPool = new BitmapPool(POOL_SIZE);
+    // The tile each view is showing, so a bitmap that's still on screen is never reused.
+    private final WeakHashMap<ImageView, Bitmap> mDisplayedTiles = new WeakHashMap<>();
+    private final LinkedList<String> mPendingPrefetches = new LinkedList<>();
+    private boolean mIsPrefetching;
 
     private NetworkImageManager() {
         // On the S4 this was around 16000 kilobytes.
         int cacheSize = (int) Runtime.getRuntime().maxMemory() / 1024 / 8;
-        mImageLoader = new ImageLoader(HttpRequest.Manager.instance.requestQueue,
-                new BitmapLruCache(cacheSize));
+        mCache = new BitmapLruCache(cacheSize);
+        mImageLoader = new ImageLoader(HttpRequest.Manager.instance.imageRequestQueue, mCache);
     }
 
     static NetworkImageManager getInstance() {
@@ -33,29 +61,89 @@ class NetworkImageManager {
         view.setVisibility(View.VISIBLE);
     }
 
+    // Tiles are decoded at about the size of the view, rather than their full size (which was
+    // around 2 MB each), so a lot more of them fit in the cache.
     public synchronized void setBitmap(final Context context, final ImageView view, String slug) {
-        mImageLoader.get(buildTileUrl(slug), new ImageLoader.ImageListener() {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        // The view may not have been laid out yet. The tiles are used as backgrounds, so the
+        // screen size is a good guess.
+        int width = view.getWidth() > 0 ? view.getWidth() : metrics.widthPixels;
+        int height = view.getHeight() > 0 ? view.getHeight() : metrics.heightPixels;
+
+        String url = buildTileUrl(slug);
+        final String cacheKey = TILE_KEY_PREFIX + width + "x" + height + ":" + url;
+
+        Bitmap cachedBitmap = mCache.getBitmap(cacheKey);
+        if (cachedBitmap != null) {
+            showTile(context, view, cachedBitmap);
+            return;
+        }
+
+        HttpRequest.SharedRequest.add(new TileRequest(url, width, height, mPool, new Response.Listener<Bitmap>() {
             @Override
-            public void onResponse(ImageLoader.ImageContainer response, boolean isImmediate) {
-                if (response.getBitmap() != null) {
-                    Animation fader = AnimationUtils.loadAnimation(context, R.anim.fadein);
-                    view.setImageBitmap(response.getBitmap());
-                    view.startAnimation(fader);
-                }
+            public void onResponse(Bitmap bitmap) {
+                mCache.putBitmap(cacheKey, bitmap);
+                showTile(context, view, bitmap);
             }
-
+        }, new Response.ErrorListener() {
             @Override
             public void onErrorResponse(VolleyError error) {
                 setDefaultBitmap(view);
             }
-        });
+        }));
+    }
+
+    // Downloads the tile of every program into the tile disk cache (without decoding them), so
+    // the background can change at the start of a program without waiting on the network.
+    // Tiles that are already cached aren't downloaded again. They're fetched one at a time at low
+    // priority, so there's always a connection free for a tile that's about to be shown, and
+    // on the same queue, so a tile that's shown while it's being prefetched waits for it instead
+    // of being downloaded twice.
+    synchronized void prefetchTiles(List<Program> programs) {
+        if (!AppConnectivityManager.getInstance().isConnectedToUnmeteredNetwork()) {
+            return;
+        }
+
+        for (Program program : programs) {
+            String url = buildTileUrl(program.slug);
+            if (!mPendingPrefetches.contains(url)) {
+                mPendingPrefetches.add(url);
+            }
+        }
+
+        if (!mIsPrefetching) {
+            prefetchNextTile();
+        }
+    }
+
+    private synchronized void prefetchNextTile() {
+        String url = mPendingPrefetches.poll();
+        mIsPrefetching = url != null;
+
+        if (url != null) {
+            HttpRequest.SharedRequest.add(new TilePrefetchRequest(url, new Runnable() {
+                @Override
+                public void run() {
+                    prefetchNextTile();
+                }
+            }));
+        }
     }
 
     public synchronized void setDefaultBitmap(ImageView view) {
+        mDisplayedTiles.remove(view);
         view.setImageResource(R.drawable.tile_generic);
     }
 
-    private String buildTileUrl(String slug) {
+    private synchronized void showTile(Context context, ImageView view, Bitmap bitmap) {
+        mDisplayedTiles.put(view, bitmap);
+
+        Animation fader = AnimationUtils.loadAnimation(context, R.anim.fadein);
+        view.setImageBitmap(bitmap);
+        view.startAnimation(fader);
+    }
+
+    private static String buildTileUrl(String slug) {
         return String.format(PROGRAM_TILE_URL, slug);
     }
 
@@ -70,12 +158,22 @@ class NetworkImageManager {
 
         @Override
         protected int sizeOf(String key, Bitmap value) {
-            // Generally one of our background images is around 2100 kb
-            // This is the uncompressed bitmap size, not the compressed JPG size
-            // Should we be compressing these images?
+            // This is the uncompressed bitmap size, not the compressed JPG size.
+            // Tiles are decoded at about screen size as RGB_565 (see TileRequest), so they're
+            // much smaller than the ~2100 kb they were at full size.
             return value.getRowBytes() * value.getHeight() / 1024;
         }
 
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+            // Other images (eg. preroll) may still be shown by views that aren't tracked here.
+            synchronized (NetworkImageManager.this) {
+                if (evicted && key.startsWith(TILE_KEY_PREFIX) && !mDisplayedTiles.containsValue(oldValue)) {
+                    mPool.put(oldValue);
+                }
+            }
+        }
+
         @Override
         public Bitmap getBitmap(String url) {
             return get(url);
@@ -86,4 +184,204 @@ class NetworkImageManager {
             put(url, bitmap);
         }
     }
+
+    // Bitmaps which aren't used anymore, to be decoded into (BitmapFactory.Options.inBitmap)
+    // instead of allocating a new one for every tile.
+    private static class BitmapPool {
+        private final int mMaxSize;
+        private final ArrayList<Bitmap> mBitmaps = new ArrayList<>();
+
+        BitmapPool(int maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        synchronized void put(Bitmap bitmap) {
+            if (!bitmap.isMutable() || bitmap.isRecycled()) {
+                return;
+            }
+
+            if (mBitmaps.size() >= mMaxSize) {
+                mBitmaps.remove(0);
+            }
+
+            mBitmaps.add(bitmap);
+        }
+
+        // Removes and returns a bitmap the decoded image will fit in, or null.
+        synchronized Bitmap get(BitmapFactory.Options options) {
+            for (int i = 0; i < mBitmaps.size(); i++) {
+                Bitmap bitmap = mBitmaps.get(i);
+
+                if (canDecodeInto(bitmap, options)) {
+                    mBitmaps.remove(i);
+                    return bitmap;
+                }
+            }
+
+            return null;
+        }
+
+        private static boolean canDecodeInto(Bitmap bitmap, BitmapFactory.Options options) {
+            if (bitmap.getConfig() != options.inPreferredConfig) {
+                return false;
+            }
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                // Any bitmap that's big enough will do.
+                int sampleSize = Math.max(options.inSampleSize, 1);
+                int width = (options.outWidth + sampleSize - 1) / sampleSize;
+                int height = (options.outHeight + sampleSize - 1) / sampleSize;
+                return width * height * bytesPerPixel(bitmap.getConfig()) <= bitmap.getByteCount();
+            }
+
+            // Before KitKat the size has to match exactly, and images can't be sampled.
+            return options.inSampleSize <= 1 &&
+                    bitmap.getWidth() == options.outWidth &&
+                    bitmap.getHeight() == options.outHeight;
+        }
+
+        private static int bytesPerPixel(Bitmap.Config config) {
+            if (config == Bitmap.Config.ARGB_8888) {
+                return 4;
+            } else if (config == Bitmap.Config.ALPHA_8) {
+                return 1;
+            } else {
+                return 2;
+            }
+        }
+    }
+
+    private static class TilePrefetchRequest extends HttpRequest.SharedRequest<Void> {
+        // Called when it's done, whether it worked or not.
+        private final Runnable mOnFinished;
+
+        TilePrefetchRequest(String url, Runnable onFinished) {
+            super(Method.GET, url, null);
+            mOnFinished = onFinished;
+        }
+
+        @Override
+        RequestQueue getRequestQueue() {
+            return HttpRequest.Manager.instance.imageRequestQueue;
+        }
+
+        @Override
+        public Priority getPriority() {
+            return Priority.LOW;
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(null, HttpRequest.parseCacheHeaders(response, TILE_CACHE_POLICY));
+        }
+
+        @Override
+        protected void deliverResponse(Void response) {
+            mOnFinished.run();
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            mOnFinished.run();
+        }
+    }
+
+    private static class TileRequest extends HttpRequest.SharedRequest<Bitmap> {
+        // Same as Volley's ImageRequest.
+        private static final int TIMEOUT_MS = 1000;
+        private static final int MAX_RETRIES = 2;
+        private static final float BACKOFF_MULT = 2f;
+        // Only decode one image at a time, so a few tiles at once don't run out of memory.
+        private static final Object DECODE_LOCK = new Object();
+
+        private final int mWidth;
+        private final int mHeight;
+        private final BitmapPool mPool;
+        private final Response.Listener<Bitmap> mListener;
+
+        TileRequest(String url, int width, int height, BitmapPool pool,
+                    Response.Listener<Bitmap> listener, Response.ErrorListener errorListener) {
+            super(Method.GET, url, errorListener);
+            mWidth = width;
+            mHeight = height;
+            mPool = pool;
+            mListener = listener;
+            setRetryPolicy(new DefaultRetryPolicy(TIMEOUT_MS, MAX_RETRIES, BACKOFF_MULT));
+        }
+
+        @Override
+        String getSharedKey() {
+            return super.getSharedKey() + " " + mWidth + "x" + mHeight;
+        }
+
+        @Override
+        RequestQueue getRequestQueue() {
+            return HttpRequest.Manager.instance.imageRequestQueue;
+        }
+
+        // Someone is waiting to see this one, so it goes ahead of any prefetching.
+        @Override
+        public Priority getPriority() {
+            return Priority.NORMAL;
+        }
+
+        @Override
+        protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+            synchronized (DECODE_LOCK) {
+                try {
+                    Bitmap bitmap = decode(response.data);
+                    if (bitmap == null) {
+                        return Response.error(new ParseError(response));
+                    }
+
+                    return Response.success(bitmap, HttpRequest.parseCacheHeaders(response, TILE_CACHE_POLICY));
+                } catch (OutOfMemoryError e) {
+                    return Response.error(new ParseError(e));
+                }
+            }
+        }
+
+        @Override
+        protected void deliverResponse(Bitmap response) {
+            mListener.onResponse(response);
+        }
+
+        private Bitmap decode(byte[] data) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = findSampleSize(options.outWidth, options.outHeight);
+            // The tiles are opaque JPGs, so there's no need for an alpha channel.
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            // So it can be reused once it's evicted from the cache.
+            options.inMutable = true;
+            options.inBitmap = mPool.get(options);
+
+            try {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            } catch (IllegalArgumentException e) {
+                // The pooled bitmap couldn't be used after all.
+                options.inBitmap = null;
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            }
+        }
+
+        // The largest power of two that still leaves the image at least as big as the view in
+        // both directions, so it can still be cropped to fill it.
+        private int findSampleSize(int width, int height) {
+            int sampleSize = 1;
+
+            while (width / (sampleSize * 2) >= mWidth && height / (sampleSize * 2) >= mHeight) {
+                sampleSize *= 2;
+            }
+
+            return sampleSize;
+        }
+    }
 }
@@ -3,6 +3,8 @@ package org.kpcc.android;
 import android.content.Context;
 import android.net.Uri;
 
+import java.io.File;
+
 /**
  * Created by rickb014 on 4/3/16.
  */
@@ -19,10 +21,22 @@ class OnDemandPlayer extends Stream implements AudioPlayer.Listener {
     OnDemandPlayer(final Context context, final String audioUrl, final String programSlug) {
         super(context);
 
-        AudioPlayer.RendererBuilder builder = new ExtractorRendererBuilder(context, USER_AGENT,
-                Uri.parse(audioUrl));
+        // Play the downloaded episode if there is one, so it works without a connection.
+        // Otherwise keep what's streamed, so seeking back or replaying doesn't download it again.
+        File downloadedFile = EpisodeDownloadManager.getInstance().getDownloadedFile(audioUrl);
+
+        BufferPolicy bufferPolicy = BufferPolicy.forStream(context, BufferPolicy.StreamType.ON_DEMAND);
+        AudioPlayer.RendererBuilder builder;
+        if (downloadedFile != null) {
+            builder = new ExtractorRendererBuilder(context, USER_AGENT, Uri.fromFile(downloadedFile),
+                    bufferPolicy);
+        } else {
+            builder = new ExtractorRendererBuilder(context, USER_AGENT, Uri.parse(audioUrl),
+                    bufferPolicy, AudioCache.getOnDemandInstance());
+        }
 
-        setAudioPlayer(new AudioPlayer(builder));
+        setAudioPlayer(new AudioPlayer(builder, bufferPolicy.getMinBufferMs(), bufferPolicy.getMinRebufferMs()),
+                PlaybackMetrics.Kind.ON_DEMAND);
         // Don't play right away - this initialization occurs while other audio is still playing.
         getAudioPlayer().setPlayWhenReady(false);
         getAudioPlayer().addListener(this);
@@ -35,6 +49,7 @@ class OnDemandPlayer extends Stream implements AudioPlayer.Listener {
     // Getters / Setters
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
+    // Always the remote URL, even when playing the downloaded file.
     public String getAudioUrl() {
         return mAudioUrl;
     }
@@ -1,21 +1,22 @@
 package org.kpcc.android;
 
-import android.os.Handler;
 import android.os.SystemClock;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by rickb014 on 8/9/15.
+ *
+ * Runs a Runnable on the main thread every interval, until it's released. The timing is done by
+ * {@link UpdateScheduler}, which all updaters share.
  */
-class PeriodicBackgroundUpdater implements Runnable {
+class PeriodicBackgroundUpdater {
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Member variables
     ////////////////////////////////////////////////////////////////////////////////////////////////
-    private Thread mBackgroundThread;
-    private final AtomicBoolean mIsObserving = new AtomicBoolean(false);
+    private static final int SLACK_DIVISOR = 10;
+
     private final AtomicBoolean mIsPaused = new AtomicBoolean(false);
-    private final Handler mHandler = new Handler();
     private final Runnable mRunner;
     private final int mInterval;
 
@@ -27,97 +28,107 @@ class PeriodicBackgroundUpdater implements Runnable {
         mInterval = interval;
     }
 
-    ////////////////////////////////////////////////////////////////////////////////////////////////
-    // Implementations
-    ////////////////////////////////////////////////////////////////////////////////////////////////
-    @Override // Runnable
-    public void run() {
-        while (mIsObserving.get()) {
-            try {
-                if (!mIsPaused.get()) {
-                    mHandler.post(mRunner);
-                }
-                Thread.sleep(mInterval);
-            } catch (InterruptedException | IllegalStateException e) {
-                // If the progress observer fails, just stop the observer.
-                // We're rescuing IllegalStateException incase the audio is stopped
-                // before this observer is shut down.
-                // We'll just refuse to observe anymore.
-                release();
-            }
-        }
-    }
-
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Member Functions
     ////////////////////////////////////////////////////////////////////////////////////////////////
-    private boolean isObserving() {
-        return mIsObserving.get();
-    }
-
     /**
      * Start this updater.
-     * This starts the background thread, i.e. begins running this class's run function.
+     * The runner is run right away, then every interval.
      */
-    synchronized void start() {
-        // If the thread is already running, we want to avoid IllegalThreadStateException.
-        if (mBackgroundThread != null && mBackgroundThread.isAlive()) return;
-        if (isObserving()) return;
-
-        mIsObserving.set(true);
-
-        if (mBackgroundThread == null || !mBackgroundThread.isAlive() || mBackgroundThread.isInterrupted()) {
-            mBackgroundThread = new Thread(this);
-        }
-
-        mBackgroundThread.start();
+    void start() {
+        UpdateScheduler.getInstance().add(this);
     }
 
     /**
-     * Stop the updater and interrupt the background thread.
+     * Stop the updater. It can be started again.
      */
-    synchronized void release() {
-        mIsObserving.set(false);
-
-        if (mBackgroundThread != null && !mBackgroundThread.isInterrupted()) {
-            try {
-                mBackgroundThread.interrupt();
-            } catch(Exception e) {
-                // This would occur if two threads tried to release this at the same time.
-                // Several sources can release this thread and they might happen at the same time.
-                // I added synchronization but this is a really lame reason for the app to
-                // crash so better safe than sorry.
-            }
-        }
-
-        mBackgroundThread = null;
+    void release() {
+        UpdateScheduler.getInstance().remove(this);
     }
 
-    synchronized void pause() {
+    // Keeps its place in the schedule, but skips running.
+    void pause() {
         mIsPaused.set(true);
     }
 
-    synchronized void resume() {
+    void resume() {
         mIsPaused.set(false);
     }
 
+    int getInterval() {
+        return mInterval;
+    }
+
+    // How early it may run to share a tick with another updater. Adaptive runners ask for a
+    // specific moment, eg. when the second shown changes, so they aren't run early.
+    long getSlackMs() {
+        return mRunner instanceof AdaptiveRunner ? 0 : mInterval / SLACK_DIVISOR;
+    }
+
+    // Called by UpdateScheduler, right after update().
+    long getNextDelayMs() {
+        return mRunner instanceof AdaptiveRunner ? ((AdaptiveRunner) mRunner).getNextDelayMs() : mInterval;
+    }
+
+    // Called by UpdateScheduler on the main thread.
+    void update() {
+        if (mIsPaused.get()) return;
+
+        try {
+            mRunner.run();
+        } catch (IllegalStateException e) {
+            // We're rescuing IllegalStateException in case the audio is stopped
+            // before this updater is released.
+            // We'll just refuse to update anymore.
+            release();
+        }
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Runnable Implementations
     ////////////////////////////////////////////////////////////////////////////////////////////////
     /**
-     * A Runnable class to use for static progress bars (eg OnDemand, Preroll).
+     * A Runnable that decides when it should run next, instead of running every interval.
      */
-    static class ProgressBarRunner implements Runnable {
+    interface AdaptiveRunner extends Runnable {
+        // In ms from now. Asked right after each run.
+        long getNextDelayMs();
+    }
+
+    /**
+     * A Runnable class to use for progress bars.
+     * It runs when the position next crosses a multiple of stepMs (eg. every second of audio, so a
+     * time display is updated exactly when it changes), and rarely while the audio isn't moving.
+     */
+    static class ProgressBarRunner implements AdaptiveRunner {
+        private static final long NOT_PLAYING_DELAY_MS = 2000;
+
         private final Stream mStream;
+        private final long mStepMs;
+        private long mNextDelayMs;
 
-        ProgressBarRunner(final Stream stream) {
+        ProgressBarRunner(final Stream stream, final long stepMs) {
             mStream = stream;
+            mStepMs = stepMs;
+            mNextDelayMs = stepMs;
         }
 
         @Override
         public void run() {
             long millis = mStream.getCurrentPosition();
             mStream.getAudioEventListener().onProgress((int)millis);
+
+            if (mStream.isPlaying()) {
+                mNextDelayMs = mStepMs - (millis % mStepMs);
+            } else {
+                // Buffering, or paused and about to be released.
+                mNextDelayMs = Math.max(mStepMs, NOT_PLAYING_DELAY_MS);
+            }
+        }
+
+        @Override
+        public long getNextDelayMs() {
+            return mNextDelayMs;
         }
     }
 
@@ -127,13 +138,18 @@ class PeriodicBackgroundUpdater implements Runnable {
      * It calculates the current hours, minutes, and seconds remaining until sleep and passes it
      * to the handler.
      */
-    public static abstract class TimerRunner implements Runnable {
+    public static abstract class TimerRunner implements AdaptiveRunner {
+        private long mNextDelayMs = 1000;
+
         @Override
         public void run() {
             final long sleepUntilMillis = DataManager.getInstance().getTimerMillis();
             long now = SystemClock.elapsedRealtime();
             long diff = sleepUntilMillis - now;
 
+            // Next just after the seconds shown change.
+            mNextDelayMs = diff <= 0 ? 1000 : diff % 1000 + 1;
+
             if (diff <= 0) {
                 onTimerComplete();
                 return;
@@ -150,6 +166,11 @@ class PeriodicBackgroundUpdater implements Runnable {
             onTimerUpdate(hours, mins, secs);
         }
 
+        @Override
+        public long getNextDelayMs() {
+            return mNextDelayMs;
+        }
+
         public abstract void onTimerUpdate(int hours, int mins, int secs);
 
         public abstract void onTimerComplete();
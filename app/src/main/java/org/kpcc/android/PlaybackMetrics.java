@@ -0,0 +1,640 @@
+package org.kpcc.android;
+
+import android.content.Context;
+import android.media.MediaCodec.CryptoException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.ExoPlayer;
+import com.google.android.exoplayer.MediaCodecTrackRenderer.DecoderInitializationException;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.upstream.TransferListener;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// How well playback went, per player: how long it took to start, how often and how long it
+// stalled, what bitrate it played at and how many loads failed. The last sessions are kept on
+// disk so they survive restarts, and can be read on the debug screen (PlaybackMetricsFragment) or
+// with "adb shell dumpsys activity service org.kpcc.android/.StreamManager".
+class PlaybackMetrics {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Enums
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    enum Kind {
+        LIVE,
+        PREROLL,
+        ON_DEMAND
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private static final String TAG = "PlaybackMetrics";
+    private static final String FILE_NAME = "playback_metrics.json";
+    private static final int MAX_SESSIONS = 100;
+    private static final int UNKNOWN_BITRATE = -1;
+    // How much has to be buffered before the bitrate is worked out from it.
+    private static final long MIN_ESTIMATE_MS = 10 * 1000;
+
+    private static PlaybackMetrics instance;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final File mFile;
+    // Saving and loading happen here, in order.
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    // Oldest first. Guarded by this.
+    private final LinkedList<Session> mSessions = new LinkedList<>();
+    private final List<Session> mActiveSessions = new ArrayList<>();
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static void setupInstance(Context context) {
+        instance = new PlaybackMetrics(context);
+    }
+
+    static PlaybackMetrics getInstance() {
+        return instance;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private PlaybackMetrics(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Starts measuring a player. The session ends when it's released.
+    Session startSession(AudioPlayer audioPlayer, Kind kind) {
+        Session session = new Session(kind, System.currentTimeMillis());
+        session.mAudioPlayer = audioPlayer;
+
+        audioPlayer.addListener(session);
+        audioPlayer.addInternalErrorListener(session);
+        audioPlayer.addInfoListener(session);
+        audioPlayer.addTransferListener(session);
+
+        synchronized (this) {
+            mActiveSessions.add(session);
+        }
+
+        return session;
+    }
+
+    synchronized List<Session> getSessions() {
+        return new ArrayList<>(mSessions);
+    }
+
+    String dump() {
+        StringWriter writer = new StringWriter();
+        dump(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    void dump(PrintWriter writer) {
+        List<Session> sessions;
+        List<Session> activeSessions;
+
+        synchronized (this) {
+            sessions = new ArrayList<>(mSessions);
+            activeSessions = new ArrayList<>(mActiveSessions);
+        }
+
+        for (Kind kind : Kind.values()) {
+            Summary summary = new Summary();
+            for (Session session : sessions) {
+                if (session.kind == kind) {
+                    summary.add(session);
+                }
+            }
+
+            writer.println(summary.describe(kind));
+        }
+
+        writer.println();
+        writer.println("Playing now:");
+        for (Session session : activeSessions) {
+            writer.println(session.describe());
+        }
+
+        writer.println();
+        writer.println("Latest first:");
+        for (int i = sessions.size() - 1; i >= 0; i--) {
+            writer.println(sessions.get(i).describe());
+        }
+
+        writer.flush();
+    }
+
+    private void onSessionFinished(Session session) {
+        synchronized (this) {
+            mActiveSessions.remove(session);
+
+            // A player that was set up but never played (eg. the live stream before play is
+            // pressed) says nothing about playback.
+            if (!session.wasPlayRequested()) {
+                return;
+            }
+
+            mSessions.add(session);
+            while (mSessions.size() > MAX_SESSIONS) {
+                mSessions.removeFirst();
+            }
+        }
+
+        Log.d(TAG, session.describe());
+
+        // After loading, so the saved sessions aren't overwritten.
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    // Runs on the executor.
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+
+        InputStream in = null;
+
+        try {
+            in = new FileInputStream(mFile);
+            byte[] bytes = new byte[(int) mFile.length()];
+            int offset = 0;
+            int count;
+            while (offset < bytes.length && (count = in.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += count;
+            }
+
+            JSONArray json = new JSONArray(new String(bytes, 0, offset, "UTF-8"));
+            List<Session> sessions = new ArrayList<>();
+            for (int i = 0; i < json.length(); i++) {
+                sessions.add(Session.fromJson(json.getJSONObject(i)));
+            }
+
+            synchronized (this) {
+                // Anything that finished while loading is newer.
+                mSessions.addAll(0, sessions);
+                while (mSessions.size() > MAX_SESSIONS) {
+                    mSessions.removeFirst();
+                }
+            }
+        } catch (IOException | JSONException e) {
+            // Start over.
+            mFile.delete();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing else to do.
+                }
+            }
+        }
+    }
+
+    // Runs on the executor.
+    private void save() {
+        JSONArray json = new JSONArray();
+        for (Session session : getSessions()) {
+            try {
+                json.put(session.toJson());
+            } catch (JSONException e) {
+                // Just leave it out.
+            }
+        }
+
+        // Written to a temporary file first, so a half written file is never read.
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        OutputStream out = null;
+
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(json.toString().getBytes("UTF-8"));
+            out.close();
+            out = null;
+
+            if (!tempFile.renameTo(mFile)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            // They'll be saved with the next session.
+            tempFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing else to do.
+                }
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Classes
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // One player, from when it's created until it's released. The player calls it on the main
+    // thread, its transfers on the loading thread, and the dump reads it from others, hence the
+    // locking.
+    //
+    // Bytes and load times come from the transfers, since only HLS reports its loads. Progressive
+    // files (episodes and prerolls) don't report a format either, so their bitrate is worked out
+    // from how much was read for how much is buffered.
+    static class Session implements AudioPlayer.Listener, AudioPlayer.InternalErrorListener,
+            AudioPlayer.InfoListener, TransferListener {
+        final Kind kind;
+        final long startedAtMs;
+
+        private long mTimeToFirstAudioMs = -1;
+        private int mRebufferCount;
+        private long mRebufferMs;
+        private long mPlayingMs;
+        private int mUnderrunCount;
+        private int mBitrateSwitchCount;
+        // Sum of bitrate * ms played at it, for the average.
+        private long mBitrateMsTotal;
+        private long mBitrateMs;
+        private int mLoadCount;
+        private int mLoadErrorCount;
+        private long mBytesLoaded;
+        private long mLoadDurationMs;
+        private boolean mFailed;
+
+        // The current state, for working out what the time since the last event was spent on.
+        private boolean mFinished;
+        private long mPlayRequestedAtMs = -1;
+        private boolean mHasStarted;
+        private boolean mIsSeeking;
+        private boolean mPlayWhenReady;
+        private int mState = ExoPlayer.STATE_IDLE;
+        private long mStateSinceMs = SystemClock.elapsedRealtime();
+        private int mBitrate = UNKNOWN_BITRATE;
+        private boolean mHasFormat;
+        private long mTransferStartedAtMs;
+        // Read since playback started at mReadFromMs (the start, or the last seek).
+        private long mBytesRead;
+        private long mReadFromMs;
+        // Null once it's finished, and for saved sessions.
+        private AudioPlayer mAudioPlayer;
+
+        private Session(Kind kind, long startedAtMs) {
+            this.kind = kind;
+            this.startedAtMs = startedAtMs;
+        }
+
+        // Buffering after a seek isn't a stall.
+        synchronized void onSeek(long positionMs) {
+            advance();
+            mIsSeeking = true;
+            mBytesRead = 0;
+            mReadFromMs = positionMs;
+        }
+
+        void finish() {
+            synchronized (this) {
+                if (mFinished) {
+                    return;
+                }
+
+                advance();
+                mFinished = true;
+                mAudioPlayer = null;
+            }
+
+            instance.onSessionFinished(this);
+        }
+
+        synchronized boolean wasPlayRequested() {
+            return mPlayRequestedAtMs != -1;
+        }
+
+        // Time spent stalled, out of the time spent playing or stalled. -1 if it never played.
+        synchronized float getRebufferRatio() {
+            long totalMs = mPlayingMs + mRebufferMs;
+            return totalMs == 0 ? -1 : (float) mRebufferMs / totalMs;
+        }
+
+        // In bits per second, -1 if it isn't known.
+        synchronized long getAverageBitrate() {
+            return mBitrateMs == 0 ? -1 : mBitrateMsTotal / mBitrateMs;
+        }
+
+        // Failed loads, out of all the loads. -1 if there weren't any.
+        synchronized float getLoadErrorRate() {
+            int total = mLoadCount + mLoadErrorCount;
+            return total == 0 ? -1 : (float) mLoadErrorCount / total;
+        }
+
+        synchronized String describe() {
+            return String.format(Locale.ENGLISH,
+                    "%s %s: first audio %s, %d rebuffers (%d ms, ratio %s), %d underruns, " +
+                            "%s kbps avg, %d switches, %d/%d loads failed, %s kbps loaded%s",
+                    new SimpleDateFormat("MM-dd HH:mm:ss", Locale.ENGLISH).format(new Date(startedAtMs)),
+                    kind, mTimeToFirstAudioMs == -1 ? "-" : mTimeToFirstAudioMs + " ms",
+                    mRebufferCount, mRebufferMs, formatRatio(getRebufferRatio()), mUnderrunCount,
+                    formatKbps(getAverageBitrate()), mBitrateSwitchCount,
+                    mLoadErrorCount, mLoadCount + mLoadErrorCount,
+                    formatKbps(mLoadDurationMs == 0 ? -1 : mBytesLoaded * 8 * 1000 / mLoadDurationMs),
+                    mFailed ? ", FAILED" : "");
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("kind", kind.name());
+            json.put("startedAt", startedAtMs);
+            json.put("timeToFirstAudioMs", mTimeToFirstAudioMs);
+            json.put("rebufferCount", mRebufferCount);
+            json.put("rebufferMs", mRebufferMs);
+            json.put("playingMs", mPlayingMs);
+            json.put("underrunCount", mUnderrunCount);
+            json.put("bitrateSwitchCount", mBitrateSwitchCount);
+            json.put("bitrateMsTotal", mBitrateMsTotal);
+            json.put("bitrateMs", mBitrateMs);
+            json.put("loadCount", mLoadCount);
+            json.put("loadErrorCount", mLoadErrorCount);
+            json.put("bytesLoaded", mBytesLoaded);
+            json.put("loadDurationMs", mLoadDurationMs);
+            json.put("failed", mFailed);
+            return json;
+        }
+
+        static Session fromJson(JSONObject json) throws JSONException {
+            Session session;
+            try {
+                session = new Session(Kind.valueOf(json.getString("kind")), json.getLong("startedAt"));
+            } catch (IllegalArgumentException e) {
+                throw new JSONException("Unknown kind: " + json.getString("kind"));
+            }
+
+            session.mTimeToFirstAudioMs = json.getLong("timeToFirstAudioMs");
+            session.mRebufferCount = json.getInt("rebufferCount");
+            session.mRebufferMs = json.getLong("rebufferMs");
+            session.mPlayingMs = json.getLong("playingMs");
+            session.mUnderrunCount = json.getInt("underrunCount");
+            session.mBitrateSwitchCount = json.getInt("bitrateSwitchCount");
+            session.mBitrateMsTotal = json.getLong("bitrateMsTotal");
+            session.mBitrateMs = json.getLong("bitrateMs");
+            session.mLoadCount = json.getInt("loadCount");
+            session.mLoadErrorCount = json.getInt("loadErrorCount");
+            session.mBytesLoaded = json.getLong("bytesLoaded");
+            session.mLoadDurationMs = json.getLong("loadDurationMs");
+            session.mFailed = json.getBoolean("failed");
+            // Only sessions that were played are saved.
+            session.mPlayRequestedAtMs = 0;
+            session.mFinished = true;
+            return session;
+        }
+
+        // Adds the time since the last event to whatever the player was doing.
+        private void advance() {
+            if (!mHasFormat && !mFinished) {
+                estimateBitrate();
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            long elapsedMs = now - mStateSinceMs;
+            mStateSinceMs = now;
+
+            if (mFinished || !mHasStarted || !mPlayWhenReady) {
+                return;
+            }
+
+            if (mState == ExoPlayer.STATE_READY) {
+                mPlayingMs += elapsedMs;
+
+                if (mBitrate != UNKNOWN_BITRATE) {
+                    mBitrateMsTotal += (long) mBitrate * elapsedMs;
+                    mBitrateMs += elapsedMs;
+                }
+            } else if (mState == ExoPlayer.STATE_BUFFERING && !mIsSeeking) {
+                mRebufferMs += elapsedMs;
+            }
+        }
+
+        // Bytes read per ms buffered. A constant bitrate file is all the same, so it's just a
+        // matter of having read enough of it.
+        private void estimateBitrate() {
+            long bufferedMs = mAudioPlayer == null ? ExoPlayer.UNKNOWN_TIME : mAudioPlayer.getBufferedPosition();
+            if (bufferedMs == ExoPlayer.UNKNOWN_TIME || bufferedMs - mReadFromMs < MIN_ESTIMATE_MS) {
+                return;
+            }
+
+            mBitrate = (int) (mBytesRead * 8 * 1000 / (bufferedMs - mReadFromMs));
+        }
+
+        @Override // AudioPlayer.Listener
+        public synchronized void onStateChanged(boolean playWhenReady, int playbackState) {
+            advance();
+
+            if (mFinished) {
+                return;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+
+            if (playWhenReady && mPlayRequestedAtMs == -1) {
+                mPlayRequestedAtMs = now;
+            }
+
+            if (playbackState == ExoPlayer.STATE_READY) {
+                mIsSeeking = false;
+
+                if (playWhenReady && !mHasStarted) {
+                    mHasStarted = true;
+                    mTimeToFirstAudioMs = now - mPlayRequestedAtMs;
+                }
+            } else if (playbackState == ExoPlayer.STATE_BUFFERING && mState != ExoPlayer.STATE_BUFFERING &&
+                    playWhenReady && mHasStarted && !mIsSeeking) {
+                mRebufferCount++;
+            }
+
+            mPlayWhenReady = playWhenReady;
+            mState = playbackState;
+        }
+
+        @Override // AudioPlayer.Listener
+        public synchronized void onError(Exception e) {
+            mFailed = true;
+        }
+
+        @Override // AudioPlayer.InternalErrorListener
+        public synchronized void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+            mUnderrunCount++;
+        }
+
+        @Override // AudioPlayer.InternalErrorListener
+        public synchronized void onLoadError(int sourceId, IOException e) {
+            mLoadErrorCount++;
+        }
+
+        @Override // AudioPlayer.InternalErrorListener
+        public void onRendererInitializationError(Exception e) {
+        }
+
+        @Override // AudioPlayer.InternalErrorListener
+        public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
+        }
+
+        @Override // AudioPlayer.InternalErrorListener
+        public void onAudioTrackWriteError(AudioTrack.WriteException e) {
+        }
+
+        @Override // AudioPlayer.InternalErrorListener
+        public void onDecoderInitializationError(DecoderInitializationException e) {
+        }
+
+        @Override // AudioPlayer.InternalErrorListener
+        public void onCryptoError(CryptoException e) {
+        }
+
+        @Override // AudioPlayer.InfoListener
+        public synchronized void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+            advance();
+
+            int bitrate = format == null || format.bitrate <= 0 ? UNKNOWN_BITRATE : format.bitrate;
+            if (mHasFormat && mBitrate != UNKNOWN_BITRATE && bitrate != mBitrate) {
+                mBitrateSwitchCount++;
+            }
+
+            mHasFormat = true;
+            mBitrate = bitrate;
+        }
+
+        @Override // TransferListener
+        public synchronized void onTransferStart() {
+            mTransferStartedAtMs = SystemClock.elapsedRealtime();
+        }
+
+        @Override // TransferListener
+        public synchronized void onBytesTransferred(int bytes) {
+            mBytesLoaded += bytes;
+            mBytesRead += bytes;
+        }
+
+        // A progressive file is read in one long transfer, which waits whenever the buffer is
+        // full, so for those the load rate is more what was needed than what the network can do.
+        @Override // TransferListener
+        public synchronized void onTransferEnd() {
+            mLoadCount++;
+            mLoadDurationMs += SystemClock.elapsedRealtime() - mTransferStartedAtMs;
+        }
+
+        @Override // AudioPlayer.InfoListener
+        public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger,
+                                    Format format, long mediaStartTimeMs, long mediaEndTimeMs,
+                                    long elapsedRealtimeMs, long loadDurationMs) {
+        }
+
+        @Override // AudioPlayer.InfoListener
+        public void onDroppedFrames(int count, long elapsed) {
+        }
+
+        @Override // AudioPlayer.InfoListener
+        public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+        }
+
+        @Override // AudioPlayer.InfoListener
+        public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+                                  long mediaStartTimeMs, long mediaEndTimeMs) {
+        }
+
+        @Override // AudioPlayer.InfoListener
+        public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+                                         long initializationDurationMs) {
+        }
+
+        @Override // AudioPlayer.InfoListener
+        public void onAvailableRangeChanged(int sourceId, TimeRange availableRange) {
+        }
+    }
+
+    // Totals for one kind of session.
+    private static class Summary {
+        int count;
+        int startedCount;
+        long timeToFirstAudioMs;
+        int rebufferCount;
+        long rebufferMs;
+        long playingMs;
+        int underrunCount;
+        int failedCount;
+        int loadCount;
+        int loadErrorCount;
+
+        void add(Session session) {
+            synchronized (session) {
+                count++;
+                if (session.mTimeToFirstAudioMs != -1) {
+                    startedCount++;
+                    timeToFirstAudioMs += session.mTimeToFirstAudioMs;
+                }
+                rebufferCount += session.mRebufferCount;
+                rebufferMs += session.mRebufferMs;
+                playingMs += session.mPlayingMs;
+                underrunCount += session.mUnderrunCount;
+                failedCount += session.mFailed ? 1 : 0;
+                loadCount += session.mLoadCount;
+                loadErrorCount += session.mLoadErrorCount;
+            }
+        }
+
+        String describe(Kind kind) {
+            long totalMs = playingMs + rebufferMs;
+            int totalLoads = loadCount + loadErrorCount;
+
+            return String.format(Locale.ENGLISH,
+                    "%s: %d sessions (%d failed), first audio %s avg, %d rebuffers, ratio %s, " +
+                            "%d underruns, load errors %s",
+                    kind, count, failedCount,
+                    startedCount == 0 ? "-" : (timeToFirstAudioMs / startedCount) + " ms",
+                    rebufferCount, formatRatio(totalMs == 0 ? -1 : (float) rebufferMs / totalMs),
+                    underrunCount, formatRatio(totalLoads == 0 ? -1 : (float) loadErrorCount / totalLoads));
+        }
+    }
+
+    private static String formatRatio(float ratio) {
+        return ratio < 0 ? "-" : String.format(Locale.ENGLISH, "%.2f%%", ratio * 100);
+    }
+
+    private static String formatKbps(long bitsPerSecond) {
+        return bitsPerSecond < 0 ? "-" : String.valueOf(bitsPerSecond / 1000);
+    }
+}
@@ -0,0 +1,28 @@
+package org.kpcc.android;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+// Debug builds only. See PlaybackMetrics.
+public class PlaybackMetricsFragment extends Fragment {
+    public final static String STACK_TAG = "PlaybackMetricsFragment";
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        Activity activity = getActivity();
+        activity.setTitle(R.string.playback_metrics);
+
+        View view = inflater.inflate(R.layout.fragment_playback_metrics, container, false);
+
+        TextView metrics = (TextView) view.findViewById(R.id.metrics);
+        metrics.setText(PlaybackMetrics.getInstance().dump());
+
+        return view;
+    }
+}
@@ -1,21 +1,29 @@
 package org.kpcc.android;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Xml;
 
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
-import com.google.android.gms.ads.identifier.AdvertisingIdClient;
-import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
-import com.google.android.gms.common.GooglePlayServicesRepairableException;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 class PrerollManager {
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -26,11 +34,23 @@ class PrerollManager {
     final static private String LAST_PREROLL_PLAY_KEY = "lastPrerollPlay";
     final static long PREROLL_THRESHOLD = 1000 * 60 * 60 * 4; // 4 hours
     final static long INSTALL_GRACE = 1000 * 60 * 10; // 10 minutes
+    // An ad decision is for now-ish, so don't hold on to one for long.
+    private final static long DECISION_MAX_AGE_MS = 1000 * 60 * 30; // 30 minutes
+    // The same ad often runs for days, so its audio is kept a while.
+    private final static long AUDIO_MAX_AGE_MS = 1000 * 60 * 60 * 24; // 24 hours
+    private final static String AUDIO_DIR = "preroll";
+    private final static int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private final static int READ_TIMEOUT_MS = 30 * 1000;
+    private final static int BUFFER_SIZE = 16 * 1024;
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Member Variables
     ////////////////////////////////////////////////////////////////////////////////////////////////
-    private PrerollCallbackListener mCallback;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // These are only used on the main thread.
+    private Decision mDecision;
+    private boolean mIsPrefetching;
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Static Functions
@@ -57,9 +77,175 @@ class PrerollManager {
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Member Functions
     ////////////////////////////////////////////////////////////////////////////////////////////////
-    void getPrerollData(Context context, PrerollCallbackListener callback) {
-        mCallback = callback;
-        new PrerollAsync().execute(context);
+    // Asks for an ad and downloads its audio ahead of time, so preroll can start as soon as play is
+    // pressed. Does nothing if there's already a recent decision, or one is being fetched.
+    void prefetch(Context context) {
+        if (mIsPrefetching || (mDecision != null && mDecision.isFresh())) {
+            return;
+        }
+
+        // Without one (eg. no Play Services), no preroll will play.
+        AdIdentityProvider.AdIdentity adIdentity = AdIdentityProvider.getInstance().getAdIdentity();
+        if (adIdentity == null) {
+            return;
+        }
+
+        mIsPrefetching = true;
+        requestDecision(context.getApplicationContext(), adIdentity);
+    }
+
+    // The prefetched ad, which can only be played once, or null if it isn't ready. The preroll
+    // data is null if the ad server had nothing to play.
+    Decision takeDecision() {
+        Decision decision = mDecision;
+        mDecision = null;
+        return decision != null && decision.isFresh() ? decision : null;
+    }
+
+    private void requestDecision(final Context context, AdIdentityProvider.AdIdentity adIdentity) {
+        String id = adIdentity.id;
+        String type = adIdentity.type;
+
+        // They've opted out of ad personalization, so the advertising ID isn't sent.
+        if (adIdentity.limitAdTracking) {
+            id = AdIdentityProvider.getInstance().getAppId();
+            type = AdIdentityProvider.TYPE_APP;
+        }
+
+        if (AppConfiguration.getInstance().isDebug) {
+            id = UUID.randomUUID().toString();
+            type = "app";
+        }
+
+        String url = String.format(PREROLL_URL, type, id);
+
+        HttpRequest.XmlRequest.prefetch(url, new Response.Listener<String>() {
+            @Override
+            public void onResponse(String response) {
+                XmlParser parser = new XmlParser(response);
+                onDecision(context, new Decision(parser.getPrerollData()));
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                // Try again next time.
+                mIsPrefetching = false;
+            }
+        });
+    }
+
+    private void onDecision(Context context, final Decision decision) {
+        mDecision = decision;
+
+        final PrerollData prerollData = decision.getPrerollData();
+        if (prerollData == null || prerollData.getAudioUrl() == null) {
+            mIsPrefetching = false;
+            return;
+        }
+
+        final File directory = new File(context.getCacheDir(), AUDIO_DIR);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteExpiredAudio(directory);
+                final File file = downloadAudio(directory, prerollData.getAudioUrl());
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // If the download failed, the decision is still good; it'll stream.
+                        decision.mAudioFile = file;
+                        mIsPrefetching = false;
+                    }
+                });
+            }
+        });
+    }
+
+    // Runs on the executor. Returns null if it couldn't be downloaded.
+    private File downloadAudio(File directory, String audioUrl) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+
+        File file = new File(directory, EpisodeDownloadManager.hash(audioUrl));
+        if (file.exists()) {
+            return file;
+        }
+
+        File partialFile = new File(file.getPath() + ".part");
+        HttpURLConnection connection = null;
+        InputStream in = null;
+        OutputStream out = null;
+
+        try {
+            connection = HttpEngine.openConnection(new URL(audioUrl));
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestProperty("User-Agent", Stream.USER_AGENT);
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+
+            in = connection.getInputStream();
+            out = new FileOutputStream(partialFile);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+
+            out.close();
+            out = null;
+
+            int contentLength = connection.getContentLength();
+            if ((contentLength >= 0 && partialFile.length() != contentLength) || !partialFile.renameTo(file)) {
+                partialFile.delete();
+                return null;
+            }
+
+            return file;
+        } catch (IOException e) {
+            partialFile.delete();
+            return null;
+        } finally {
+            closeQuietly(out);
+            closeQuietly(in);
+
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // Runs on the executor.
+    private void deleteExpiredAudio(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > AUDIO_MAX_AGE_MS) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing else to do.
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -131,8 +317,33 @@ class PrerollManager {
         }
     }
 
-    abstract static class PrerollCallbackListener {
-        abstract public void onPrerollResponse(PrerollData prerollData);
+    // What the ad server said to play, and when.
+    static class Decision {
+        private final PrerollData mPrerollData;
+        private final long mDecidedAtMs = System.currentTimeMillis();
+        // Null until (and unless) the audio is downloaded. Only used on the main thread.
+        private File mAudioFile;
+
+        Decision(PrerollData prerollData) {
+            mPrerollData = prerollData;
+        }
+
+        PrerollData getPrerollData() {
+            return mPrerollData;
+        }
+
+        // The downloaded audio if there is one, otherwise the ad server's.
+        String getAudioUrl() {
+            if (mAudioFile != null && mAudioFile.exists()) {
+                return Uri.fromFile(mAudioFile).toString();
+            }
+
+            return mPrerollData == null ? null : mPrerollData.getAudioUrl();
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() - mDecidedAtMs < DECISION_MAX_AGE_MS;
+        }
     }
 
     private static class XmlParser {
@@ -222,61 +433,4 @@ class PrerollManager {
             return result;
         }
     }
-
-    private class PrerollAsync extends AsyncTask<Context, Void, AdvertisingIdClient.Info> {
-        @Override
-        protected AdvertisingIdClient.Info doInBackground(Context... contexts) {
-            AdvertisingIdClient.Info adIdInfo = null;
-            Context context = contexts[0];
-
-            try {
-                adIdInfo = AdvertisingIdClient.getAdvertisingIdInfo(context);
-            } catch (GooglePlayServicesNotAvailableException | GooglePlayServicesRepairableException | IOException e) {
-                // ad info will be null and no preroll will play.
-            }
-
-            if (adIdInfo != null) {
-                String id = adIdInfo.getId();
-                String type;
-
-                if (id == null) {
-                    type = "app";
-
-                    id = DataManager.getInstance().getAdId();
-
-                    if (id.isEmpty()) {
-                        id = UUID.randomUUID().toString();
-                        DataManager.getInstance().setAdId(id);
-                    }
-                } else {
-                    type = "gaid";
-                }
-
-                if (AppConfiguration.getInstance().isDebug) {
-                    id = UUID.randomUUID().toString();
-                    type = "app";
-                }
-
-                String url = String.format(PREROLL_URL, type, id);
-
-                HttpRequest.XmlRequest.get(url, new Response.Listener<String>() {
-                    @Override
-                    public void onResponse(String response) {
-                        XmlParser parser = new XmlParser(response);
-                        mCallback.onPrerollResponse(parser.getPrerollData());
-                    }
-                }, new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError error) {
-                        // No Preroll will be played.
-                        mCallback.onPrerollResponse(null);
-                    }
-                });
-            } else {
-                mCallback.onPrerollResponse(null);
-            }
-
-            return adIdInfo;
-        }
-    }
 }
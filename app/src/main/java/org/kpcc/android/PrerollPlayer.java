@@ -64,6 +64,12 @@ class PrerollPlayer extends Stream implements AudioPlayer.Listener {
         getPrerollCompleteCallback().onPrerollComplete();
     }
 
+    @Override // Stream
+    void onPlayerPlaying() {
+        LiveStreamPrefetcher.instance.onAudioStarted();
+        super.onPlayerPlaying();
+    }
+
     @Override
     void onPlayerEnded() {
         super.onPlayerEnded();
@@ -76,10 +82,12 @@ class PrerollPlayer extends Stream implements AudioPlayer.Listener {
     // We want to be able to rely on the preroll player existing, but we don't know if it will
     // actually be playing anything, so this method acts as sort of a "deferred constructor".
     void setupPreroll(final String audioUrl) {
+        BufferPolicy bufferPolicy = BufferPolicy.forStream(getContext(), BufferPolicy.StreamType.CLIP);
         AudioPlayer.RendererBuilder builder = new ExtractorRendererBuilder(getContext(), USER_AGENT,
-                Uri.parse(audioUrl));
+                Uri.parse(audioUrl), bufferPolicy);
 
-        setAudioPlayer(new AudioPlayer(builder));
+        setAudioPlayer(new AudioPlayer(builder, bufferPolicy.getMinBufferMs(), bufferPolicy.getMinRebufferMs()),
+                PlaybackMetrics.Kind.PREROLL);
         getAudioPlayer().setPlayWhenReady(false);
 
         getAudioPlayer().addListener(this);
@@ -52,6 +52,12 @@ public class ProgramsFragment extends Fragment
 
             @Override
             public void onDisconnect() {
+                // The saved programs can still be shown.
+                if (!ProgramsManager.instance.getAllPrograms().isEmpty()) {
+                    onProgramsResponse();
+                    return;
+                }
+
                 showError(R.string.network_error);
             }
         }, true);
@@ -86,13 +92,14 @@ public class ProgramsFragment extends Fragment
         if (mRequest != null) {
             mRequest.cancel();
         }
+        ProgramsManager.instance.removeListener(this);
 
         AppConnectivityManager.getInstance().removeOnNetworkConnectivityListener(ProgramsFragment.STACK_TAG);
     }
 
     @Override
     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-        Program program = ProgramsManager.instance.ALL_PROGRAMS.get(position);
+        Program program = (Program) parent.getItemAtPosition(position);
 
         FragmentManager fragmentManager = getActivity().getSupportFragmentManager();
         fragmentManager.beginTransaction()
@@ -107,7 +114,7 @@ public class ProgramsFragment extends Fragment
     @Override
     public void onProgramsResponse() {
         mAdapter = (new ArrayAdapter<Program>(getActivity(),
-                R.layout.list_item_program, ProgramsManager.instance.ALL_PROGRAMS) {
+                R.layout.list_item_program, ProgramsManager.instance.getAllPrograms()) {
             @Override
             public View getView(int position, View convertView, ViewGroup parent) {
                 MainActivity activity = (MainActivity) getActivity();
@@ -118,7 +125,7 @@ public class ProgramsFragment extends Fragment
                     view = inflater.inflate(R.layout.list_item_program, null);
                 }
 
-                Program program = ProgramsManager.instance.ALL_PROGRAMS.get(position);
+                Program program = getItem(position);
                 TextView title = (TextView) view.findViewById(R.id.program_title);
                 ImageView avatar = (ImageView) view.findViewById(R.id.program_avatar);
                 ImageView arrow = (ImageView) view.findViewById(R.id.arrow);
@@ -1,67 +1,165 @@
 package org.kpcc.android;
 
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonReader;
+import android.util.JsonWriter;
+
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.kpcc.api.Program;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ProgramsManager {
     public static final ProgramsManager instance = new ProgramsManager();
-    private static final String[] HIDDEN_PROGRAMS = { "filmweek-marquee", "take-two-evenings" };
+    private static final Set<String> HIDDEN_PROGRAMS = new HashSet<>(Arrays.asList(
+            "filmweek-marquee", "take-two-evenings"));
+    private static final String CATALOG_FILE = "programs.json";
+    // The list of programs rarely changes, so a saved list is shown right away and only
+    // refreshed (in the background) once it's this old.
+    private static final long REFRESH_AFTER_MS = TimeUnit.HOURS.toMillis(1);
 
-    public final ArrayList<Program> ALL_PROGRAMS = new ArrayList<>();
+    // Replaced as a whole when the programs load, so readers always see a complete list.
+    private volatile Programs mPrograms = new Programs(new ArrayList<Program>(), 0);
+    private File mCatalogFile;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // These are only used on the main thread.
+    private boolean mIsRestoring;
+    private final List<OnProgramsResponseListener> mWaitingListeners = new ArrayList<>();
 
     private ProgramsManager() {
     }
 
+    // Loads the programs saved by the last successful request, in the background. Anyone who
+    // asks for the programs in the meantime hears back once they're in.
+    void restore(Context context) {
+        mCatalogFile = new File(context.getFilesDir(), CATALOG_FILE);
+
+        if (!mCatalogFile.exists()) {
+            return;
+        }
+
+        mIsRestoring = true;
+        final File catalogFile = mCatalogFile;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Programs programs = read(catalogFile);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRestored(programs);
+                    }
+                });
+            }
+        });
+    }
+
+    // Runs on the executor. Null if there's nothing usable.
+    private static Programs read(File catalogFile) {
+        JsonReader reader = null;
+        try {
+            reader = new JsonReader(new InputStreamReader(
+                    new BufferedInputStream(new FileInputStream(catalogFile)), "UTF-8"));
+            return new Programs(Program.readCollection(reader), catalogFile.lastModified());
+        } catch (IOException | IllegalStateException e) {
+            // It'll be replaced after the next request.
+            catalogFile.delete();
+            return null;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private void onRestored(Programs programs) {
+        mIsRestoring = false;
+
+        // Nothing is requested until they're in, so these are the newest.
+        if (programs != null) {
+            setPrograms(programs);
+        }
+
+        List<OnProgramsResponseListener> listeners = new ArrayList<>(mWaitingListeners);
+        mWaitingListeners.clear();
+        for (OnProgramsResponseListener listener : listeners) {
+            // If they're old, they're refreshed the next time they're asked for. Only if the file
+            // couldn't be read is there a request now.
+            if (mPrograms.sorted.isEmpty()) {
+                loadPrograms(listener);
+            } else {
+                listener.onProgramsResponse();
+            }
+        }
+    }
+
+    // For a listener that's going away before the saved programs are in.
+    public void removeListener(OnProgramsResponseListener listener) {
+        mWaitingListeners.remove(listener);
+    }
+
     public Request loadPrograms(final OnProgramsResponseListener listener) {
-        if (!ALL_PROGRAMS.isEmpty()) {
-            listener.onProgramsResponse();
+        if (mIsRestoring) {
+            // Called once they're in.
+            mWaitingListeners.add(listener);
             return null;
         }
 
+        Programs programs = mPrograms;
+
+        if (!programs.sorted.isEmpty()) {
+            listener.onProgramsResponse();
+
+            if (System.currentTimeMillis() - programs.loadedAtMs < REFRESH_AFTER_MS) {
+                return null;
+            }
+
+            // Refresh in the background, the listener will be called again with the new programs.
+        }
+
         HashMap<String, String> params = new HashMap<>();
         params.put("air_status", "onair");
 
-        return Program.Client.getCollection(params, new Response.Listener<JSONObject>() {
+        return Program.Client.getCollection(params, new ProgramsParser(mCatalogFile), new Response.Listener<Programs>() {
             @Override
-            public void onResponse(JSONObject response) {
-                try {
-                    JSONArray jsonPrograms = response.getJSONArray(Program.PLURAL_KEY);
-                    List<String> hiddenPrograms = Arrays.asList(HIDDEN_PROGRAMS);
-
-                    for (int i = 0; i < jsonPrograms.length(); i++) {
-                        try {
-                            Program program = Program.buildFromJson(jsonPrograms.getJSONObject(i));
-
-                            // Skip hidden programs.
-                            if (!hiddenPrograms.contains(program.slug)) {
-                                ALL_PROGRAMS.add(program);
-                            }
-                        } catch (JSONException e) {
-                            // implicit continue.
-                        }
-                    }
-
-                    Collections.sort(ALL_PROGRAMS);
-                    listener.onProgramsResponse();
-                } catch (JSONException e) {
-                    // No programs will be available.
-                }
+            public void onResponse(Programs programs) {
+                // A cached response may be delivered first and then refreshed from the network.
+                setPrograms(programs);
+                listener.onProgramsResponse();
             }
         }, new Response.ErrorListener() {
             @Override
             public void onErrorResponse(VolleyError error) {
+                // The saved programs are still good enough.
+                if (!mPrograms.sorted.isEmpty()) {
+                    return;
+                }
+
                 // No programs will be available.
                 // The fragment should check the status and try to reload the programs.
                 listener.onProgramsError();
@@ -69,20 +167,118 @@ public class ProgramsManager {
         });
     }
 
+    private void setPrograms(Programs programs) {
+        mPrograms = programs;
+        NetworkImageManager.getInstance().prefetchTiles(programs.sorted);
+    }
+
+    // Sorted, and can't be changed.
+    public List<Program> getAllPrograms() {
+        return mPrograms.sorted;
+    }
+
+    // Null while the saved programs are still being read. Use loadPrograms() to hear when
+    // they're in.
     public Program find(String slug) {
-        Program foundProgram = null;
+        return mPrograms.bySlug.get(slug);
+    }
 
-        for (Program program : ALL_PROGRAMS) {
-            if (program.slug.equals(slug)) {
-                foundProgram = program;
-                break;
-            }
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
         }
 
-        return foundProgram;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing else to do.
+        }
     }
 
 
+    private static class Programs {
+        final List<Program> sorted;
+        final Map<String, Program> bySlug;
+        final long loadedAtMs;
+
+        Programs(ArrayList<Program> programs, long loadedAtMs) {
+            Collections.sort(programs);
+            HashMap<String, Program> bySlug = new HashMap<>();
+
+            for (Program program : programs) {
+                bySlug.put(program.slug, program);
+            }
+
+            this.sorted = Collections.unmodifiableList(programs);
+            this.bySlug = Collections.unmodifiableMap(bySlug);
+            this.loadedAtMs = loadedAtMs;
+        }
+    }
+
+    // Runs on the network thread, so the listener only has to swap the programs in.
+    // Programs from the network are saved here too, for the next time the app starts. A cached
+    // response (which may be a stale one, delivered before it's refreshed) isn't saved, and is
+    // only as fresh as the last one that was.
+    private static class ProgramsParser implements HttpRequest.NetworkModelParser<Programs> {
+        private final File mCatalogFile;
+
+        ProgramsParser(File catalogFile) {
+            mCatalogFile = catalogFile;
+        }
+
+        @Override
+        public Programs parse(JsonReader reader) throws IOException {
+            return parse(reader, true);
+        }
+
+        @Override
+        public Programs parse(JsonReader reader, boolean isFromNetwork) throws IOException {
+            ArrayList<Program> programs = new ArrayList<>();
+
+            for (Program program : Program.readCollection(reader)) {
+                // Skip hidden programs.
+                if (!HIDDEN_PROGRAMS.contains(program.slug)) {
+                    programs.add(program);
+                }
+            }
+
+            if (!isFromNetwork) {
+                // 0 if it was never saved, so it's refreshed.
+                return new Programs(programs, mCatalogFile == null ? 0 : mCatalogFile.lastModified());
+            }
+
+            Programs parsed = new Programs(programs, System.currentTimeMillis());
+
+            if (mCatalogFile != null && !parsed.sorted.isEmpty()) {
+                save(parsed.sorted);
+            }
+
+            return parsed;
+        }
+
+        // Writes to a temporary file first, so a half written file is never read.
+        private void save(List<Program> programs) {
+            File tempFile = new File(mCatalogFile.getPath() + ".tmp");
+            JsonWriter writer = null;
+
+            try {
+                writer = new JsonWriter(new OutputStreamWriter(
+                        new BufferedOutputStream(new FileOutputStream(tempFile)), "UTF-8"));
+                Program.writeCollection(writer, programs);
+                writer.close();
+                writer = null;
+
+                if (!tempFile.renameTo(mCatalogFile)) {
+                    tempFile.delete();
+                }
+            } catch (IOException e) {
+                tempFile.delete();
+            } finally {
+                closeQuietly(writer);
+            }
+        }
+    }
+
     public interface OnProgramsResponseListener {
         void onProgramsResponse();
         void onProgramsError();
@@ -14,10 +14,11 @@ class RawPlayer extends Stream implements AudioPlayer.Listener {
     RawPlayer(final Context context, final String assetPath) {
         super(context);
 
+        BufferPolicy bufferPolicy = BufferPolicy.forStream(context, BufferPolicy.StreamType.CLIP);
         AudioPlayer.RendererBuilder builder = new ExtractorRendererBuilder(context, USER_AGENT,
-                Uri.parse(assetPath));
+                Uri.parse(assetPath), bufferPolicy);
 
-        setAudioPlayer(new AudioPlayer(builder));
+        setAudioPlayer(new AudioPlayer(builder, bufferPolicy.getMinBufferMs(), bufferPolicy.getMinRebufferMs()));
         getAudioPlayer().setPlayWhenReady(false);
 
         getAudioPlayer().addListener(this);
@@ -0,0 +1,163 @@
+package org.kpcc.android;
+
+import android.util.JsonReader;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.kpcc.api.ScheduleOccurrence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+// Holds a day of the schedule around the live stream, so finding out what was on at some point
+// in the live window (eg. after every seek) doesn't need a request to /schedule/at.
+class ScheduleTimeline {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static final ScheduleTimeline instance = new ScheduleTimeline();
+    private static final long WINDOW_BEFORE_MS = TimeUnit.HOURS.toMillis(12);
+    private static final long WINDOW_LENGTH_MS = TimeUnit.HOURS.toMillis(24);
+    // The schedule can be changed at the last minute, so don't trust it for long.
+    private static final long MAX_AGE_MS = TimeUnit.MINUTES.toMillis(5);
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Replaced as a whole, never changed.
+    private volatile Snapshot mSnapshot;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private ScheduleTimeline() {
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Whether the loaded schedule includes this time. It may be old.
+    boolean covers(long timestampMs) {
+        Snapshot snapshot = mSnapshot;
+        return snapshot != null && snapshot.covers(timestampMs);
+    }
+
+    // Whether the loaded schedule includes this time and is recent enough to use without reloading.
+    boolean isFresh(long timestampMs) {
+        Snapshot snapshot = mSnapshot;
+        return snapshot != null && snapshot.covers(timestampMs) &&
+                System.currentTimeMillis() - snapshot.loadedAtMs < MAX_AGE_MS;
+    }
+
+    // What was (or will be) on at this time. Null if nothing is on, or it isn't loaded.
+    ScheduleOccurrence find(long timestampMs) {
+        Snapshot snapshot = mSnapshot;
+        return snapshot == null ? null : snapshot.find(timestampMs);
+    }
+
+    // Loads the schedule around this time.
+    Request load(long timestampMs, final OnScheduleLoadListener listener) {
+        // Round to the hour so nearby loads are the same request, and can be cached.
+        long startMs = timestampMs - WINDOW_BEFORE_MS;
+        startMs -= startMs % TimeUnit.HOURS.toMillis(1);
+
+        return ScheduleOccurrence.Client.getRange(
+                TimeUnit.MILLISECONDS.toSeconds(startMs),
+                TimeUnit.MILLISECONDS.toSeconds(WINDOW_LENGTH_MS),
+                new SnapshotParser(startMs),
+                new Response.Listener<Snapshot>() {
+                    @Override
+                    public void onResponse(Snapshot snapshot) {
+                        mSnapshot = snapshot;
+                        listener.onScheduleLoaded();
+                    }
+                }, new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        listener.onScheduleError();
+                    }
+                });
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Classes
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private static class Snapshot {
+        final long fromMs;
+        final long toMs;
+        final long loadedAtMs;
+        // Sorted by start time.
+        final ScheduleOccurrence[] occurrences;
+        final long[] startsAtMs;
+        final long[] endsAtMs;
+
+        Snapshot(long fromMs, long toMs, ArrayList<ScheduleOccurrence> occurrences) {
+            this.fromMs = fromMs;
+            this.toMs = toMs;
+            this.loadedAtMs = System.currentTimeMillis();
+            this.occurrences = occurrences.toArray(new ScheduleOccurrence[occurrences.size()]);
+            this.startsAtMs = new long[this.occurrences.length];
+            this.endsAtMs = new long[this.occurrences.length];
+
+            for (int i = 0; i < this.occurrences.length; i++) {
+                startsAtMs[i] = this.occurrences[i].getStartsAtMs();
+                endsAtMs[i] = this.occurrences[i].getEndsAtMs();
+            }
+        }
+
+        boolean covers(long timestampMs) {
+            return timestampMs >= fromMs && timestampMs < toMs;
+        }
+
+        ScheduleOccurrence find(long timestampMs) {
+            int i = Arrays.binarySearch(startsAtMs, timestampMs);
+
+            // If there's no exact match, use the last occurrence that started before.
+            if (i < 0) {
+                i = -i - 2;
+            }
+
+            if (i < 0 || timestampMs >= endsAtMs[i]) {
+                return null;
+            }
+
+            return occurrences[i];
+        }
+    }
+
+    // Runs on the network thread, so the listener only has to swap the snapshot in.
+    private static class SnapshotParser implements HttpRequest.ModelParser<Snapshot> {
+        private final long mFromMs;
+
+        SnapshotParser(long fromMs) {
+            mFromMs = fromMs;
+        }
+
+        @Override
+        public Snapshot parse(JsonReader reader) throws IOException {
+            ArrayList<ScheduleOccurrence> occurrences = ScheduleOccurrence.readCollection(reader);
+
+            Collections.sort(occurrences, new Comparator<ScheduleOccurrence>() {
+                @Override
+                public int compare(ScheduleOccurrence lhs, ScheduleOccurrence rhs) {
+                    long lhsStartsAtMs = lhs.getStartsAtMs();
+                    long rhsStartsAtMs = rhs.getStartsAtMs();
+                    return lhsStartsAtMs < rhsStartsAtMs ? -1 : (lhsStartsAtMs == rhsStartsAtMs ? 0 : 1);
+                }
+            });
+
+            return new Snapshot(mFromMs, mFromMs + WINDOW_LENGTH_MS, occurrences);
+        }
+    }
+
+    interface OnScheduleLoadListener {
+        void onScheduleLoaded();
+        void onScheduleError();
+    }
+}
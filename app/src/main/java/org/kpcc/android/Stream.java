@@ -34,6 +34,7 @@ abstract class Stream implements AudioManager.OnAudioFocusChangeListener, AudioP
     // Member Variables
     ////////////////////////////////////////////////////////////////////////////////////////////////
     private AudioPlayer mAudioPlayer;
+    private PlaybackMetrics.Session mMetricsSession;
     private final Context mContext;
     private AudioEventListener mAudioEventListener;
     private final StreamManager mStreamManager;
@@ -118,11 +119,20 @@ abstract class Stream implements AudioManager.OnAudioFocusChangeListener, AudioP
         getAudioManager().abandonAudioFocus(this);
         mIsPaused.set(false);
         if (getAudioPlayer() == null) return;
-        getAudioPlayer().release();
+        if (mMetricsSession != null) mMetricsSession.finish();
+        mMetricsSession = null;
+
+        // So it can be called again, and nobody gets hold of a released player.
+        AudioPlayer audioPlayer = mAudioPlayer;
+        mAudioPlayer = null;
+        audioPlayer.release();
     }
 
     void seekTo(final long pos) {
+        if (getAudioPlayer() == null) return;
+
         try {
+            if (mMetricsSession != null) mMetricsSession.onSeek(pos);
             getAudioPlayer().seekTo(pos);
         } catch (IllegalStateException e) {
             release();
@@ -164,6 +174,12 @@ abstract class Stream implements AudioManager.OnAudioFocusChangeListener, AudioP
         mAudioPlayer = audioPlayer;
     }
 
+    // Also records how well it plays, see PlaybackMetrics.
+    protected void setAudioPlayer(final AudioPlayer audioPlayer, final PlaybackMetrics.Kind kind) {
+        setAudioPlayer(audioPlayer);
+        mMetricsSession = PlaybackMetrics.getInstance().startSession(audioPlayer, kind);
+    }
+
     protected AudioEventListener getAudioEventListener() {
         return mAudioEventListener;
     }
@@ -8,6 +8,11 @@ import android.content.ServiceConnection;
 import android.os.Binder;
 import android.os.IBinder;
 
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -34,6 +39,12 @@ public class StreamManager extends Service {
         return mBinder;
     }
 
+    // adb shell dumpsys activity service org.kpcc.android/.StreamManager
+    @Override // Service
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        PlaybackMetrics.getInstance().dump(writer);
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Getters / Setters
     ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -86,6 +97,83 @@ public class StreamManager extends Service {
         }
     }
 
+    // What all players share, so it outlives any one of them: how fast the network is. A new
+    // player then doesn't have to guess the bandwidth, and HLS starts at the right bitrate right
+    // away. Each player still has its own allocator, since ExoPlayer throttles loading on the
+    // allocator's total, and a shared one would make players wait on each other's buffers.
+    static class PlaybackResources {
+        private static PlaybackResources instance;
+
+        private final PersistentBandwidthMeter mBandwidthMeter = new PersistentBandwidthMeter();
+
+        static void setupInstance() {
+            instance = new PlaybackResources();
+        }
+
+        static PlaybackResources getInstance() {
+            return instance;
+        }
+
+        private PlaybackResources() {
+        }
+
+        BandwidthMeter getBandwidthMeter() {
+            return mBandwidthMeter;
+        }
+    }
+
+    // Until there's a measurement in this session, the estimate from the last one (on the same
+    // kind of network) is used. The estimate is saved every so often as transfers finish.
+    private static class PersistentBandwidthMeter implements BandwidthMeter {
+        private static final long SAVE_INTERVAL_MS = 30 * 1000;
+
+        private final DefaultBandwidthMeter mMeter = new DefaultBandwidthMeter();
+        private long mLastSavedAtMs;
+
+        @Override // BandwidthMeter
+        public long getBitrateEstimate() {
+            long estimate = mMeter.getBitrateEstimate();
+            if (estimate != NO_ESTIMATE) {
+                return estimate;
+            }
+
+            long savedEstimate = DataManager.getInstance().getBitrateEstimate(isUnmetered());
+            return savedEstimate > 0 ? savedEstimate : NO_ESTIMATE;
+        }
+
+        @Override // TransferListener
+        public void onTransferStart() {
+            mMeter.onTransferStart();
+        }
+
+        @Override // TransferListener
+        public void onBytesTransferred(int bytes) {
+            mMeter.onBytesTransferred(bytes);
+        }
+
+        @Override // TransferListener
+        public void onTransferEnd() {
+            mMeter.onTransferEnd();
+
+            long estimate = mMeter.getBitrateEstimate();
+            long now = System.currentTimeMillis();
+
+            synchronized (this) {
+                if (estimate == NO_ESTIMATE || now - mLastSavedAtMs < SAVE_INTERVAL_MS) {
+                    return;
+                }
+
+                mLastSavedAtMs = now;
+            }
+
+            DataManager.getInstance().setBitrateEstimate(isUnmetered(), estimate);
+        }
+
+        private static boolean isUnmetered() {
+            return AppConnectivityManager.getInstance().isConnectedToUnmeteredNetwork();
+        }
+    }
+
     static class ConnectivityManager implements ServiceConnection {
         private static ConnectivityManager instance;
 
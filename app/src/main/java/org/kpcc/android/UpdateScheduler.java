@@ -0,0 +1,209 @@
+package org.kpcc.android;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs every PeriodicBackgroundUpdater on the main thread, from one timer.
+//
+// Each updater used to have its own thread that slept between posts to the main thread. Now
+// there are no threads at all: the next tick is posted for the earliest deadline, and any other
+// updater that's nearly due runs in the same tick, so the device wakes up less often. The
+// updaters run in the next frame after the tick, so what they read (eg. the player position) is
+// as fresh as possible when it's drawn, and they're all drawn together.
+//
+// Everything updated is on screen, so nothing runs while the app isn't visible (which includes
+// when the screen is off); whatever is overdue runs as soon as it is again.
+class UpdateScheduler {
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // The most an updater will run early, to share a tick with another one.
+    private static final long MAX_SLACK_MS = 250;
+    // While an updater waits for its frame.
+    private static final long PENDING = Long.MAX_VALUE;
+
+    private static UpdateScheduler instance;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Variables
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            runDueUpdaters();
+        }
+    };
+    // The updaters that will run in the next frame. Only used on the main thread.
+    private final List<PeriodicBackgroundUpdater> mDueUpdaters = new ArrayList<>();
+    // When each updater should run next, in uptime (what Handler uses). Guarded by this.
+    private final Map<PeriodicBackgroundUpdater, Long> mDeadlines = new HashMap<>();
+    // Activities between onStart and onStop. Only used on the main thread.
+    private int mStartedActivities;
+    private volatile boolean mIsVisible;
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Static Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    static void setupInstance(Application application) {
+        instance = new UpdateScheduler(application);
+    }
+
+    static UpdateScheduler getInstance() {
+        return instance;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    private UpdateScheduler(Application application) {
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityStarted(Activity activity) {
+                mStartedActivities++;
+                if (mStartedActivities == 1) {
+                    mIsVisible = true;
+                    scheduleTick();
+                }
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+                mStartedActivities--;
+                if (mStartedActivities == 0) {
+                    mIsVisible = false;
+                    mHandler.removeCallbacks(mTick);
+                }
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Member Functions
+    ////////////////////////////////////////////////////////////////////////////////////////////////
+    // Runs it right away, then every interval. Does nothing if it's already added.
+    synchronized void add(PeriodicBackgroundUpdater updater) {
+        if (mDeadlines.containsKey(updater)) {
+            return;
+        }
+
+        mDeadlines.put(updater, SystemClock.uptimeMillis());
+        scheduleTick();
+    }
+
+    synchronized void remove(PeriodicBackgroundUpdater updater) {
+        mDeadlines.remove(updater);
+
+        if (mDeadlines.isEmpty()) {
+            mHandler.removeCallbacks(mTick);
+        }
+    }
+
+    private synchronized boolean isPending(PeriodicBackgroundUpdater updater) {
+        Long deadline = mDeadlines.get(updater);
+        return deadline != null && deadline == PENDING;
+    }
+
+    // Posts the next tick for the earliest deadline, replacing the one that's there.
+    private synchronized void scheduleTick() {
+        mHandler.removeCallbacks(mTick);
+
+        if (!mIsVisible || mDeadlines.isEmpty()) {
+            return;
+        }
+
+        long nextDeadline = PENDING;
+        for (long deadline : mDeadlines.values()) {
+            nextDeadline = Math.min(nextDeadline, deadline);
+        }
+
+        // Otherwise they're all waiting for the frame, which will schedule the next tick.
+        if (nextDeadline != PENDING) {
+            mHandler.postAtTime(mTick, nextDeadline);
+        }
+    }
+
+    // Runs on the main thread.
+    private void tick() {
+        long now = SystemClock.uptimeMillis();
+
+        synchronized (this) {
+            for (Map.Entry<PeriodicBackgroundUpdater, Long> entry : mDeadlines.entrySet()) {
+                PeriodicBackgroundUpdater updater = entry.getKey();
+                long slackMs = Math.min(updater.getSlackMs(), MAX_SLACK_MS);
+
+                if (entry.getValue() != PENDING && entry.getValue() - now <= slackMs) {
+                    mDueUpdaters.add(updater);
+                    entry.setValue(PENDING);
+                }
+            }
+        }
+
+        if (!mDueUpdaters.isEmpty()) {
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+
+        scheduleTick();
+    }
+
+    // Runs on the main thread, in a frame.
+    private void runDueUpdaters() {
+        List<PeriodicBackgroundUpdater> due = new ArrayList<>(mDueUpdaters);
+        mDueUpdaters.clear();
+
+        for (PeriodicBackgroundUpdater updater : due) {
+            // Unless it was released (or released and started again) since the tick.
+            if (!isPending(updater)) {
+                continue;
+            }
+
+            // Not holding the lock, since an updater may add or remove updaters.
+            updater.update();
+
+            synchronized (this) {
+                if (isPending(updater)) {
+                    mDeadlines.put(updater, SystemClock.uptimeMillis() + updater.getNextDelayMs());
+                }
+            }
+        }
+
+        scheduleTick();
+    }
+}
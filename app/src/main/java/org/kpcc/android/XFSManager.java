@@ -8,9 +8,9 @@ import com.parse.ParseException;
 import com.parse.ParseObject;
 import com.parse.ParseQuery;
 
-import java.text.SimpleDateFormat;
+import org.kpcc.api.ISODateParser;
+
 import java.util.List;
-import java.util.Locale;
 
 /**
  * Created by rickb014 on 5/4/16.
@@ -26,7 +26,6 @@ public class XFSManager {
     public static final String KPCC_PLUS_DRIVE_START = "kpccPlusDriveStart";
     public static final String KPCC_PLUS_STREAM = "kpccPlusStream";
     public static final String SETTING_VALUE = "settingValue";
-    private static final String ISO_DATETIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
 
     private static XFSManager instance;
 
@@ -41,12 +40,8 @@ public class XFSManager {
     }
 
     static long parseISODateTime(String isoDateString) {
-        SimpleDateFormat sdf = new SimpleDateFormat(ISO_DATETIME_FORMAT, Locale.US);
-        try {
-            return sdf.parse(isoDateString).getTime();
-        } catch (java.text.ParseException e) {
-            return 0;
-        }
+        long uts = ISODateParser.parseDateTime(isoDateString);
+        return uts == ISODateParser.INVALID ? 0 : uts;
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////
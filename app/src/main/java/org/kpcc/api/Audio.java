@@ -1,10 +1,21 @@
 package org.kpcc.api;
 
+import android.util.JsonReader;
+
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.kpcc.android.HttpRequest;
+
+import java.io.IOException;
 
 public class Audio extends Entity {
     public final static String PLURAL_KEY = "audio";
+    static final HttpRequest.ModelParser<Audio> PARSER = new HttpRequest.ModelParser<Audio>() {
+        @Override
+        public Audio parse(JsonReader reader) throws IOException {
+            return buildFromJson(reader);
+        }
+    };
 
     private String mUrl;
     private int mDurationSeconds;
@@ -25,6 +36,34 @@ public class Audio extends Entity {
         return audio;
     }
 
+    // Returns null if the audio has no URL.
+    static Audio buildFromJson(JsonReader reader) throws IOException {
+        Audio audio = new Audio();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case PROP_URL:
+                    audio.setUrl(readString(reader));
+                    break;
+                case PROP_DURATION:
+                    String duration = readString(reader);
+                    try {
+                        // Same as JSONObject.getInt(), which accepts "123" and 123.0 too.
+                        audio.setDurationSeconds(duration == null ? 0 : (int) Double.parseDouble(duration));
+                    } catch (NumberFormatException e) {
+                        audio.setDurationSeconds(0); // Ensure an integer
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return audio.getUrl() == null ? null : audio;
+    }
+
     public JSONObject toJSON() throws JSONException {
         JSONObject audioJson = new JSONObject();
         audioJson.put(Entity.PROP_URL, getUrl());
@@ -18,6 +18,13 @@ import java.util.Map;
 //     public static BaseApiClient Client = new BaseApiClient("articles");
 //   }
 //
+// Example (Cached responses):
+//
+//   public class Article {
+//     public static BaseApiClient Client = new BaseApiClient("articles",
+//         new HttpRequest.CachePolicy(softTtlMs, ttlMs));
+//   }
+//
 // Example (Custom client):
 //
 //   public class Event {
@@ -32,9 +39,17 @@ public class BaseApiClient {
     private static final String API_ROOT = "http://www.scpr.org/api/v3/";
 
     private final String mEndpoint;
+    private final HttpRequest.CachePolicy mCachePolicy;
 
     public BaseApiClient(String endpoint) {
+        this(endpoint, null);
+    }
+
+    // Responses are kept in the HTTP cache and revalidated according to the policy.
+    // Without a policy, the API's own cache headers are used (which usually means no caching).
+    public BaseApiClient(String endpoint, HttpRequest.CachePolicy cachePolicy) {
         mEndpoint = endpoint;
+        mCachePolicy = cachePolicy;
     }
 
 
@@ -43,7 +58,7 @@ public class BaseApiClient {
                     Response.Listener<JSONObject> listener,
                     Response.ErrorListener errorListener) {
 
-        return HttpRequest.JsonRequest.get(buildUrl(relativePath, params), null, null, listener, errorListener);
+        return HttpRequest.JsonRequest.get(buildUrl(relativePath, params), null, null, mCachePolicy, listener, errorListener);
     }
 
 
@@ -51,7 +66,28 @@ public class BaseApiClient {
                               Response.Listener<JSONObject> listener,
                               Response.ErrorListener errorListener) {
 
-        return HttpRequest.JsonRequest.get(buildUrl("", params), null, null, listener, errorListener);
+        return HttpRequest.JsonRequest.get(buildUrl("", params), null, null, mCachePolicy, listener, errorListener);
+    }
+
+
+    // Same as get(), but the response is parsed into models on the network thread.
+    public <T> Request get(String relativePath,
+                    Map<String, String> params,
+                    HttpRequest.ModelParser<T> parser,
+                    Response.Listener<T> listener,
+                    Response.ErrorListener errorListener) {
+
+        return HttpRequest.ModelRequest.get(buildUrl(relativePath, params), null, mCachePolicy, parser, listener, errorListener);
+    }
+
+
+    // Same as getCollection(), but the response is parsed into models on the network thread.
+    public <T> Request getCollection(Map<String, String> params,
+                              HttpRequest.ModelParser<T> parser,
+                              Response.Listener<T> listener,
+                              Response.ErrorListener errorListener) {
+
+        return HttpRequest.ModelRequest.get(buildUrl("", params), null, mCachePolicy, parser, listener, errorListener);
     }
 
 
@@ -1,8 +1,14 @@
 package org.kpcc.api;
 
 
-import java.text.ParseException;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.kpcc.android.HttpRequest;
+
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Locale;
 
@@ -18,16 +24,25 @@ abstract class Entity {
     final static String PROP_ENDS_AT = "ends_at";
     final static String PROP_PUBLISHED_AT = "published_at";
 
-    private static final String ISO_DATETIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
-    private static final String ISO_DATE_FORMAT = "yyyy-MM-dd";
     private static final String HUMAN_DATE_FORMAT = "MMMM d, yyyy";
 
+    private static final ThreadLocal<SimpleDateFormat> HUMAN_DATE_FORMATTER = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(HUMAN_DATE_FORMAT, Locale.US);
+        }
+    };
+
     static Date parseISODateTime(String isoDateString) {
-        return parseDate(new SimpleDateFormat(ISO_DATETIME_FORMAT, Locale.US), isoDateString);
+        return toDate(ISODateParser.parseDateTime(isoDateString));
+    }
+
+    static long parseISODateTimeMs(String isoDateString) {
+        return ISODateParser.parseDateTime(isoDateString);
     }
 
     static Date parseISODate(String isoDateString) {
-        return parseDate(new SimpleDateFormat(ISO_DATE_FORMAT, Locale.US), isoDateString);
+        return toDate(ISODateParser.parseDate(isoDateString));
     }
 
     static String parseHumanDate(Date date) {
@@ -35,18 +50,86 @@ abstract class Entity {
             return null;
         }
 
-        return new SimpleDateFormat(HUMAN_DATE_FORMAT, Locale.US).format(date);
+        SimpleDateFormat sdf = HUMAN_DATE_FORMATTER.get();
+        sdf.setTimeZone(ISODateParser.getTimeZone());
+        return sdf.format(date);
+    }
+
+    private static Date toDate(long ms) {
+        return ms == ISODateParser.INVALID ? null : new Date(ms);
     }
 
-    private static Date parseDate(SimpleDateFormat sdf, String isoDateString) {
-        Date isoDate = null;
+    // Streaming helpers, used to build entities directly from the response body without
+    // building a JSONObject tree first.
 
-        try {
-            isoDate = sdf.parse(isoDateString);
-        } catch (ParseException e) {
-            // date will be null.
+    // Reads the member named `key` of the current object with the given parser, skipping all
+    // the others. Returns null if there is no such member.
+    static <T> T readMember(JsonReader reader, String key, HttpRequest.ModelParser<T> parser) throws IOException {
+        T result = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(key)) {
+                result = parser.parse(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return result;
+    }
+
+    // Reads an array with the given parser. Items which the parser returns null for
+    // (because they were invalid) are left out.
+    static <T> ArrayList<T> readArray(JsonReader reader, HttpRequest.ModelParser<T> parser) throws IOException {
+        ArrayList<T> items = new ArrayList<>();
+
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return items;
+        }
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            T item = parser.parse(reader);
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        reader.endArray();
+
+        return items;
+    }
+
+    // Reads the first item of an array (the app only uses the first audio) and skips the rest.
+    static <T> T readFirst(JsonReader reader, HttpRequest.ModelParser<T> parser) throws IOException {
+        T first = null;
+
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (first == null) {
+                first = parser.parse(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+
+        return first;
+    }
+
+    static String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
         }
 
-        return isoDate;
+        return reader.nextString();
     }
 }
@@ -1,20 +1,30 @@
 package org.kpcc.api;
 
 import android.support.annotation.NonNull;
+import android.util.JsonReader;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.kpcc.android.HttpRequest;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 public class Episode extends Entity implements Comparable<Episode> {
     public final static String PLURAL_KEY = "episodes";
     private final static String ENDPOINT = PLURAL_KEY;
+    // Only in toJSON(). Episodes made from segments air at a time of day, which parsing
+    // air_date (a date) would lose.
+    private final static String PROP_AIR_DATE_MS = "air_date_ms";
 
     // API Client
-    public final static BaseApiClient Client = new BaseApiClient(ENDPOINT);
+    // New episodes show up at most a few times a day, so a cached list is good for a while.
+    private final static HttpRequest.CachePolicy CACHE_POLICY = new HttpRequest.CachePolicy(
+            TimeUnit.MINUTES.toMillis(5), TimeUnit.DAYS.toMillis(1));
+    public final static BaseApiClient Client = new BaseApiClient(ENDPOINT, CACHE_POLICY);
 
     private final ArrayList<Segment> segments = new ArrayList<>();
     private String mTitle;
@@ -36,7 +46,11 @@ public class Episode extends Entity implements Comparable<Episode> {
 
         episode.setTitle(jsonEpisode.getString(PROP_TITLE));
         episode.setRawAirDate(jsonEpisode.getString(PROP_AIR_DATE));
-        episode.setAirDate(parseISODate(jsonEpisode.getString(PROP_AIR_DATE)));
+        if (jsonEpisode.has(PROP_AIR_DATE_MS)) {
+            episode.setAirDate(new Date(jsonEpisode.getLong(PROP_AIR_DATE_MS)));
+        } else {
+            episode.setAirDate(parseISODate(jsonEpisode.getString(PROP_AIR_DATE)));
+        }
         episode.setFormattedAirDate(parseHumanDate(episode.getAirDate()));
 
         // URL is unique so we'll use it as ID too.
@@ -66,6 +80,74 @@ public class Episode extends Entity implements Comparable<Episode> {
         return episode;
     }
 
+    // Same as buildFromJson(JSONObject), but reads straight from the response body.
+    // Returns null if the episode is missing anything buildFromJson(JSONObject) requires.
+    static Episode buildFromJson(JsonReader reader) throws IOException {
+        Episode episode = new Episode();
+        boolean hasAudios = false;
+        boolean hasSegments = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case PROP_TITLE:
+                    episode.setTitle(readString(reader));
+                    break;
+                case PROP_AIR_DATE:
+                    episode.setRawAirDate(readString(reader));
+                    break;
+                case PROP_PUBLIC_URL:
+                    episode.setPublicUrl(readString(reader));
+                    break;
+                case Audio.PLURAL_KEY:
+                    hasAudios = true;
+                    episode.setAudio(readFirst(reader, Audio.PARSER));
+                    break;
+                case Segment.PLURAL_KEY:
+                    hasSegments = true;
+                    episode.getSegments().addAll(readArray(reader, Segment.PARSER));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (episode.getTitle() == null || episode.getRawAirDate() == null ||
+                episode.getPublicUrl() == null || !hasAudios) {
+            return null;
+        }
+
+        // Segments are only used when the episode doesn't have audio.
+        if (episode.getAudio() != null) {
+            episode.getSegments().clear();
+        } else if (!hasSegments) {
+            return null;
+        }
+
+        episode.setAirDate(parseISODate(episode.getRawAirDate()));
+        episode.setFormattedAirDate(parseHumanDate(episode.getAirDate()));
+
+        return episode;
+    }
+
+    // Reads a collection response, eg. {"episodes": [...]}
+    public static ArrayList<Episode> readCollection(JsonReader reader) throws IOException {
+        ArrayList<Episode> episodes = readMember(reader, PLURAL_KEY, new HttpRequest.ModelParser<ArrayList<Episode>>() {
+            @Override
+            public ArrayList<Episode> parse(JsonReader reader) throws IOException {
+                return readArray(reader, new HttpRequest.ModelParser<Episode>() {
+                    @Override
+                    public Episode parse(JsonReader reader) throws IOException {
+                        return buildFromJson(reader);
+                    }
+                });
+            }
+        });
+
+        return episodes == null ? new ArrayList<Episode>() : episodes;
+    }
+
     public static Episode buildFromSegment(Segment segment) {
         Episode episode = new Episode();
 
@@ -93,6 +175,10 @@ public class Episode extends Entity implements Comparable<Episode> {
         json.put(Entity.PROP_PUBLIC_URL, getPublicUrl());
         json.put(Entity.PROP_AIR_DATE, getRawAirDate());
 
+        if (getAirDate() != null) {
+            json.put(PROP_AIR_DATE_MS, getAirDate().getTime());
+        }
+
         JSONArray audios = new JSONArray();
 
         if (getAudio() != null) {
@@ -147,7 +233,7 @@ public class Episode extends Entity implements Comparable<Episode> {
         mAudio = audio;
     }
 
-    private String getRawAirDate() {
+    public String getRawAirDate() {
         return mRawAirDate;
     }
 
@@ -0,0 +1,231 @@
+package org.kpcc.api;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// Parses the two date formats the API sends:
+//
+//   yyyy-MM-dd'T'HH:mm:ss.SSSZ  (eg. 2016-05-04T13:00:00.000-07:00)
+//   yyyy-MM-dd                  (eg. 2016-05-04)
+//
+// SimpleDateFormat is very expensive to build and isn't thread-safe, and these get parsed once or
+// twice for every episode and segment in a list. The common shapes are parsed by hand straight
+// into epoch milliseconds. Anything else falls back to a per-thread SimpleDateFormat, so the
+// results are always the same as they used to be.
+public final class ISODateParser {
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final String ISO_DATETIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+    private static final String ISO_DATE_FORMAT = "yyyy-MM-dd";
+    private static final long SECOND_MS = 1000;
+    private static final long MINUTE_MS = 60 * SECOND_MS;
+    private static final long HOUR_MS = 60 * MINUTE_MS;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    // How far either side of midnight to look for a DST change.
+    private static final long DST_WINDOW_MS = 6 * HOUR_MS;
+
+    // TimeZone.getDefault() makes a copy every time, so it's kept here. See refreshTimeZone().
+    private static volatile TimeZone defaultTimeZone = TimeZone.getDefault();
+
+    private static final ThreadLocal<SimpleDateFormat> DATETIME_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(ISO_DATETIME_FORMAT, Locale.US);
+        }
+    };
+
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(ISO_DATE_FORMAT, Locale.US);
+        }
+    };
+
+    private ISODateParser() {
+    }
+
+    // The default time zone. It's shared, so it mustn't be modified.
+    public static TimeZone getTimeZone() {
+        return defaultTimeZone;
+    }
+
+    // Has to be called when the default time zone changes (ACTION_TIMEZONE_CHANGED).
+    public static void refreshTimeZone() {
+        defaultTimeZone = TimeZone.getDefault();
+    }
+
+    // Returns epoch milliseconds, or INVALID.
+    public static long parseDateTime(String isoDateString) {
+        if (isoDateString == null) {
+            return INVALID;
+        }
+
+        long millis = parseDateTimeFast(isoDateString);
+        if (millis != INVALID) {
+            return millis;
+        }
+
+        return parseWith(DATETIME_FORMAT.get(), isoDateString);
+    }
+
+    // Returns epoch milliseconds of midnight (local time) on that day, or INVALID.
+    public static long parseDate(String isoDateString) {
+        if (isoDateString == null) {
+            return INVALID;
+        }
+
+        long millis = parseDateFast(isoDateString);
+        if (millis != INVALID) {
+            return millis;
+        }
+
+        return parseWith(DATE_FORMAT.get(), isoDateString);
+    }
+
+    private static long parseWith(SimpleDateFormat sdf, String isoDateString) {
+        // SimpleDateFormat uses the default time zone at the time it's built.
+        sdf.setTimeZone(defaultTimeZone);
+
+        try {
+            return sdf.parse(isoDateString).getTime();
+        } catch (ParseException e) {
+            return INVALID;
+        }
+    }
+
+    // yyyy-MM-ddTHH:mm:ss.SSS followed by Z, +hh:mm or +hhmm
+    private static long parseDateTimeFast(String s) {
+        int length = s.length();
+        if (length < 24 || s.charAt(10) != 'T' || s.charAt(13) != ':' ||
+                s.charAt(16) != ':' || s.charAt(19) != '.') {
+            return INVALID;
+        }
+
+        long days = parseDays(s);
+        int hour = parseDigits(s, 11, 13);
+        int minute = parseDigits(s, 14, 16);
+        int second = parseDigits(s, 17, 19);
+        int millis = parseDigits(s, 20, 23);
+
+        if (days == INVALID || hour < 0 || minute < 0 || second < 0 || millis < 0) {
+            return INVALID;
+        }
+
+        long offsetMs;
+        char sign = s.charAt(23);
+
+        if (sign == 'Z' && length == 24) {
+            offsetMs = 0;
+        } else if ((sign == '+' || sign == '-') && (length == 29 || length == 28)) {
+            int offsetHours = parseDigits(s, 24, 26);
+            int offsetMinutes;
+
+            if (length == 29 && s.charAt(26) == ':') {
+                offsetMinutes = parseDigits(s, 27, 29);
+            } else if (length == 28) {
+                offsetMinutes = parseDigits(s, 26, 28);
+            } else {
+                return INVALID;
+            }
+
+            if (offsetHours < 0 || offsetMinutes < 0) {
+                return INVALID;
+            }
+
+            offsetMs = offsetHours * HOUR_MS + offsetMinutes * MINUTE_MS;
+            if (sign == '-') {
+                offsetMs = -offsetMs;
+            }
+        } else {
+            return INVALID;
+        }
+
+        return days * DAY_MS + hour * HOUR_MS + minute * MINUTE_MS + second * SECOND_MS + millis - offsetMs;
+    }
+
+    // yyyy-MM-dd, anything after it is ignored (like SimpleDateFormat does).
+    private static long parseDateFast(String s) {
+        if (s.length() < 10) {
+            return INVALID;
+        }
+
+        long days = parseDays(s);
+        if (days == INVALID) {
+            return INVALID;
+        }
+
+        // Find the instant at which it's midnight in the default time zone. Around a DST change,
+        // midnight can happen twice or not at all. Like SimpleDateFormat, use the offset from
+        // after the change if midnight is on or after it in that offset: the second of two
+        // midnights, or the moment of the change if midnight is skipped.
+        long localMidnight = days * DAY_MS;
+        TimeZone timeZone = defaultTimeZone;
+        long utcGuess = localMidnight - timeZone.getRawOffset();
+        int offsetBefore = timeZone.getOffset(utcGuess - DST_WINDOW_MS);
+        int offsetAfter = timeZone.getOffset(utcGuess + DST_WINDOW_MS);
+
+        if (offsetBefore != offsetAfter && timeZone.getOffset(localMidnight - offsetAfter) == offsetAfter) {
+            return localMidnight - offsetAfter;
+        }
+
+        return localMidnight - offsetBefore;
+    }
+
+    // Days since 1970-01-01 for the yyyy-MM-dd at the start of the string.
+    private static long parseDays(String s) {
+        if (s.charAt(4) != '-' || s.charAt(7) != '-') {
+            return INVALID;
+        }
+
+        int year = parseDigits(s, 0, 4);
+        int month = parseDigits(s, 5, 7);
+        int day = parseDigits(s, 8, 10);
+
+        // Out of range days (eg. Feb 30) are left to SimpleDateFormat's lenient parsing.
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return INVALID;
+        }
+
+        // Days from civil, see http://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400; // The year is never negative here.
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean isLeapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return isLeapYear ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Parses s[start, end) as a positive decimal number, or returns -1.
+    private static int parseDigits(String s, int start, int end) {
+        int value = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+}
@@ -1,15 +1,26 @@
 package org.kpcc.api;
 
 import android.support.annotation.NonNull;
+import android.util.JsonReader;
+import android.util.JsonWriter;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.kpcc.android.HttpRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 public class Program extends Entity implements Comparable<Program> {
     public final static String PLURAL_KEY = "programs";
     private final static String ENDPOINT = PLURAL_KEY;
-    public final static BaseApiClient Client = new BaseApiClient(ENDPOINT);
+    // The list of programs rarely changes.
+    private final static HttpRequest.CachePolicy CACHE_POLICY = new HttpRequest.CachePolicy(
+            TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(7));
+    public final static BaseApiClient Client = new BaseApiClient(ENDPOINT, CACHE_POLICY);
     public final static String SINGULAR_KEY = "program";
 
     public String title;
@@ -27,6 +38,69 @@ public class Program extends Entity implements Comparable<Program> {
         return program;
     }
 
+    static final HttpRequest.ModelParser<Program> PARSER = new HttpRequest.ModelParser<Program>() {
+        @Override
+        public Program parse(JsonReader reader) throws IOException {
+            return buildFromJson(reader);
+        }
+    };
+
+    // Returns null if the program has no title or slug.
+    static Program buildFromJson(JsonReader reader) throws IOException {
+        Program program = new Program();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case PROP_TITLE:
+                    program.title = readString(reader);
+                    break;
+                case PROP_SLUG:
+                    program.slug = readString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (program.title == null || program.slug == null) {
+            return null;
+        }
+
+        program.normalizedTitle = program.title.replaceFirst("^(The )", "");
+        return program;
+    }
+
+    // Reads a collection response, eg. {"programs": [...]}
+    public static ArrayList<Program> readCollection(JsonReader reader) throws IOException {
+        ArrayList<Program> programs = readMember(reader, PLURAL_KEY, new HttpRequest.ModelParser<ArrayList<Program>>() {
+            @Override
+            public ArrayList<Program> parse(JsonReader reader) throws IOException {
+                return readArray(reader, PARSER);
+            }
+        });
+
+        return programs == null ? new ArrayList<Program>() : programs;
+    }
+
+    // Writes the programs in the same shape as a collection response, so readCollection can
+    // read them back. Only what buildFromJson reads is written.
+    public static void writeCollection(JsonWriter writer, List<Program> programs) throws IOException {
+        writer.beginObject();
+        writer.name(PLURAL_KEY).beginArray();
+
+        for (Program program : programs) {
+            writer.beginObject();
+            writer.name(PROP_TITLE).value(program.title);
+            writer.name(PROP_SLUG).value(program.slug);
+            writer.endObject();
+        }
+
+        writer.endArray();
+        writer.endObject();
+    }
+
     @Override
     public int compareTo(@NonNull Program otherProgram) {
         return normalizedTitle.compareTo(otherProgram.normalizedTitle);
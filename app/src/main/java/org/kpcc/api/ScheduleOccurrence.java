@@ -1,22 +1,37 @@
 package org.kpcc.api;
 
+import android.util.JsonReader;
+
 import com.android.volley.Request;
 import com.android.volley.Response;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.kpcc.android.HttpRequest;
 
-import java.util.Date;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 
 public class ScheduleOccurrence extends Entity {
     public final static String SINGULAR_KEY = "schedule_occurrence";
+    public final static String PLURAL_KEY = "schedule_occurrences";
     private final static String ENDPOINT = "schedule";
+    // The schedule can be changed at the last minute, so don't trust it for long.
+    private final static HttpRequest.CachePolicy CACHE_POLICY = new HttpRequest.CachePolicy(
+            TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(10));
     public final static ApiClient Client = new ApiClient(ENDPOINT);
-    private final static String AT_ENDPOINT = "at";
-    private static final String TIME = "time";
+    private static final String START_TIME = "start_time";
+    private static final String LENGTH = "length";
+    static final HttpRequest.ModelParser<ScheduleOccurrence> PARSER = new HttpRequest.ModelParser<ScheduleOccurrence>() {
+        @Override
+        public ScheduleOccurrence parse(JsonReader reader) throws IOException {
+            return buildFromJson(reader);
+        }
+    };
 
 
     private String mTitle;
@@ -38,14 +53,15 @@ public class ScheduleOccurrence extends Entity {
 
         schedule.mTitle = jsonSchedule.getString(PROP_TITLE);
 
-        Date softStartsAt = parseISODateTime(jsonSchedule.getString(PROP_SOFT_STARTS_AT));
-        schedule.mSoftStartsAtMs = softStartsAt.getTime();
-
-        Date startsAt = parseISODateTime(jsonSchedule.getString(PROP_STARTS_AT));
-        schedule.mStartsAtMs = startsAt.getTime();
+        schedule.mSoftStartsAtMs = parseISODateTimeMs(jsonSchedule.getString(PROP_SOFT_STARTS_AT));
+        schedule.mStartsAtMs = parseISODateTimeMs(jsonSchedule.getString(PROP_STARTS_AT));
+        schedule.mEndsAtMs = parseISODateTimeMs(jsonSchedule.getString(PROP_ENDS_AT));
 
-        Date endsAt = parseISODateTime(jsonSchedule.getString(PROP_ENDS_AT));
-        schedule.mEndsAtMs = endsAt.getTime();
+        if (schedule.mSoftStartsAtMs == ISODateParser.INVALID ||
+                schedule.mStartsAtMs == ISODateParser.INVALID ||
+                schedule.mEndsAtMs == ISODateParser.INVALID) {
+            throw new JSONException("Invalid schedule occurrence times.");
+        }
 
         if (jsonSchedule.has(Program.SINGULAR_KEY)) {
             schedule.mProgramSlug = jsonSchedule.getJSONObject(Program.SINGULAR_KEY).getString(PROP_SLUG);
@@ -54,6 +70,71 @@ public class ScheduleOccurrence extends Entity {
         return schedule;
     }
 
+    // Reads a collection response, eg. {"schedule_occurrences": [...]}
+    // Occurrences missing any of their times are left out.
+    public static ArrayList<ScheduleOccurrence> readCollection(JsonReader reader) throws IOException {
+        ArrayList<ScheduleOccurrence> schedules = readMember(reader, PLURAL_KEY, new HttpRequest.ModelParser<ArrayList<ScheduleOccurrence>>() {
+            @Override
+            public ArrayList<ScheduleOccurrence> parse(JsonReader reader) throws IOException {
+                return readArray(reader, PARSER);
+            }
+        });
+
+        return schedules == null ? new ArrayList<ScheduleOccurrence>() : schedules;
+    }
+
+    static ScheduleOccurrence buildFromJson(JsonReader reader) throws IOException {
+        ScheduleOccurrence schedule = new ScheduleOccurrence();
+        String softStartsAt = null;
+        String startsAt = null;
+        String endsAt = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case PROP_TITLE:
+                    schedule.mTitle = readString(reader);
+                    break;
+                case PROP_SOFT_STARTS_AT:
+                    softStartsAt = readString(reader);
+                    break;
+                case PROP_STARTS_AT:
+                    startsAt = readString(reader);
+                    break;
+                case PROP_ENDS_AT:
+                    endsAt = readString(reader);
+                    break;
+                case Program.SINGULAR_KEY:
+                    schedule.mProgramSlug = readMember(reader, PROP_SLUG, new HttpRequest.ModelParser<String>() {
+                        @Override
+                        public String parse(JsonReader reader) throws IOException {
+                            return readString(reader);
+                        }
+                    });
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (schedule.mTitle == null || softStartsAt == null || startsAt == null || endsAt == null) {
+            return null;
+        }
+
+        schedule.mSoftStartsAtMs = parseISODateTimeMs(softStartsAt);
+        schedule.mStartsAtMs = parseISODateTimeMs(startsAt);
+        schedule.mEndsAtMs = parseISODateTimeMs(endsAt);
+
+        if (schedule.mSoftStartsAtMs == ISODateParser.INVALID ||
+                schedule.mStartsAtMs == ISODateParser.INVALID ||
+                schedule.mEndsAtMs == ISODateParser.INVALID) {
+            return null;
+        }
+
+        return schedule;
+    }
+
     public long getSoftStartsAtMs() {
         return mSoftStartsAtMs;
     }
@@ -80,13 +161,16 @@ public class ScheduleOccurrence extends Entity {
 
     public static class ApiClient extends BaseApiClient {
         public ApiClient(String endpoint) {
-            super(endpoint);
+            super(endpoint, CACHE_POLICY);
         }
 
-        public Request getAtTimestamp(long uts, Response.Listener<JSONObject> listener, Response.ErrorListener errorListener) {
+        // Everything on between startUts and startUts + lengthSeconds.
+        public <T> Request getRange(long startUts, long lengthSeconds, HttpRequest.ModelParser<T> parser,
+                                    Response.Listener<T> listener, Response.ErrorListener errorListener) {
             Map<String,String> params = new HashMap<>();
-            params.put(TIME, String.valueOf(uts));
-            return get(AT_ENDPOINT, params, listener, errorListener);
+            params.put(START_TIME, String.valueOf(startUts));
+            params.put(LENGTH, String.valueOf(lengthSeconds));
+            return getCollection(params, parser, listener, errorListener);
         }
     }
 
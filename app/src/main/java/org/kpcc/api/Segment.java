@@ -1,13 +1,23 @@
 package org.kpcc.api;
 
+import android.util.JsonReader;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.kpcc.android.HttpRequest;
 
+import java.io.IOException;
 import java.util.Date;
 
 public class Segment extends Entity {
     public final static String PLURAL_KEY = "segments";
+    static final HttpRequest.ModelParser<Segment> PARSER = new HttpRequest.ModelParser<Segment>() {
+        @Override
+        public Segment parse(JsonReader reader) throws IOException {
+            return buildFromJson(reader);
+        }
+    };
 
     public String title;
     public Date publishedAt;
@@ -35,4 +45,39 @@ public class Segment extends Entity {
 
         return segment;
     }
+
+    // Returns null if the segment is missing anything buildFromJson(JSONObject) requires.
+    static Segment buildFromJson(JsonReader reader) throws IOException {
+        Segment segment = new Segment();
+        boolean hasAudios = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case PROP_TITLE:
+                    segment.title = readString(reader);
+                    break;
+                case PROP_PUBLISHED_AT:
+                    segment.rawPublishedAt = readString(reader);
+                    break;
+                case PROP_PUBLIC_URL:
+                    segment.publicUrl = readString(reader);
+                    break;
+                case Audio.PLURAL_KEY:
+                    hasAudios = true;
+                    segment.audio = readFirst(reader, Audio.PARSER);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (segment.title == null || segment.rawPublishedAt == null || segment.publicUrl == null || !hasAudios) {
+            return null;
+        }
+
+        segment.publishedAt = parseISODateTime(segment.rawPublishedAt);
+        return segment;
+    }
 }
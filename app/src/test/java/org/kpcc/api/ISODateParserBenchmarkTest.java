@@ -0,0 +1,158 @@
+package org.kpcc.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Times the dates in a realistic episodes response (50 episodes, some of them split into
+// segments) parsed the way Entity does now, against a new SimpleDateFormat per date the way it
+// used to. There's no JMH here, so it's a plain timing: warmed up, then enough rounds to compare.
+//
+// The fixture's offsets are -0700 rather than the API's -07:00, which the desktop
+// SimpleDateFormat (unlike Android's) can't parse.
+public class ISODateParserBenchmarkTest {
+    private static final String FIXTURE = "episodes.json";
+    private static final Pattern AIR_DATE = Pattern.compile("\"air_date\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern PUBLISHED_AT = Pattern.compile("\"published_at\"\\s*:\\s*\"([^\"]+)\"");
+    private static final String ISO_DATETIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+    private static final String ISO_DATE_FORMAT = "yyyy-MM-dd";
+    private static final String HUMAN_DATE_FORMAT = "MMMM d, yyyy";
+    private static final int WARM_UP_ROUNDS = 500;
+    private static final int ROUNDS = 2000;
+
+    private TimeZone mDefaultTimeZone;
+    private List<String> mAirDates;
+    private List<String> mPublishedAts;
+
+    @Before
+    public void setUp() throws IOException {
+        mDefaultTimeZone = TimeZone.getDefault();
+        setDefaultTimeZone(TimeZone.getTimeZone("America/Los_Angeles"));
+
+        String json = readFixture();
+        mAirDates = findAll(AIR_DATE, json);
+        mPublishedAts = findAll(PUBLISHED_AT, json);
+    }
+
+    @After
+    public void tearDown() {
+        setDefaultTimeZone(mDefaultTimeZone);
+    }
+
+    @Test
+    public void parsesTheSameAsSimpleDateFormat() throws ParseException {
+        assertEquals(50, mAirDates.size());
+
+        for (String airDate : mAirDates) {
+            long expected = new SimpleDateFormat(ISO_DATE_FORMAT, Locale.US).parse(airDate).getTime();
+            assertEquals(airDate, expected, Entity.parseISODate(airDate).getTime());
+            assertEquals(airDate,
+                    new SimpleDateFormat(HUMAN_DATE_FORMAT, Locale.US).format(Entity.parseISODate(airDate)),
+                    Entity.parseHumanDate(Entity.parseISODate(airDate)));
+        }
+
+        for (String publishedAt : mPublishedAts) {
+            long expected = new SimpleDateFormat(ISO_DATETIME_FORMAT, Locale.US).parse(publishedAt).getTime();
+            assertEquals(publishedAt, expected, Entity.parseISODateTime(publishedAt).getTime());
+        }
+    }
+
+    @Test
+    public void fasterThanSimpleDateFormat() throws ParseException {
+        // Adding the results up keeps the JIT from skipping the work.
+        long sink = 0;
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            sink += parseWithSimpleDateFormat() + parseWithEntity();
+        }
+
+        long startNs = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += parseWithSimpleDateFormat();
+        }
+        long simpleDateFormatNs = (System.nanoTime() - startNs) / ROUNDS;
+
+        startNs = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += parseWithEntity();
+        }
+        long entityNs = (System.nanoTime() - startNs) / ROUNDS;
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "%d episodes, %d segments: SimpleDateFormat %d us, ISODateParser %d us (%.1fx) [%d]",
+                mAirDates.size(), mPublishedAts.size(), simpleDateFormatNs / 1000, entityNs / 1000,
+                (double) simpleDateFormatNs / entityNs, sink % 10));
+
+        assertTrue(entityNs < simpleDateFormatNs);
+    }
+
+    // What Entity did for each episode (air date, then the human date) and each segment.
+    private long parseWithSimpleDateFormat() throws ParseException {
+        long sum = 0;
+
+        for (String airDate : mAirDates) {
+            java.util.Date date = new SimpleDateFormat(ISO_DATE_FORMAT, Locale.US).parse(airDate);
+            sum += date.getTime() + new SimpleDateFormat(HUMAN_DATE_FORMAT, Locale.US).format(date).length();
+        }
+
+        for (String publishedAt : mPublishedAts) {
+            sum += new SimpleDateFormat(ISO_DATETIME_FORMAT, Locale.US).parse(publishedAt).getTime();
+        }
+
+        return sum;
+    }
+
+    private long parseWithEntity() {
+        long sum = 0;
+
+        for (String airDate : mAirDates) {
+            java.util.Date date = Entity.parseISODate(airDate);
+            sum += date.getTime() + Entity.parseHumanDate(date).length();
+        }
+
+        for (String publishedAt : mPublishedAts) {
+            sum += Entity.parseISODateTime(publishedAt).getTime();
+        }
+
+        return sum;
+    }
+
+    private String readFixture() throws IOException {
+        InputStream in = getClass().getResourceAsStream(FIXTURE);
+        try {
+            return new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static List<String> findAll(Pattern pattern, String json) {
+        List<String> values = new ArrayList<>();
+        Matcher matcher = pattern.matcher(json);
+
+        while (matcher.find()) {
+            values.add(matcher.group(1));
+        }
+
+        return values;
+    }
+
+    private static void setDefaultTimeZone(TimeZone timeZone) {
+        TimeZone.setDefault(timeZone);
+        ISODateParser.refreshTimeZone();
+    }
+}
@@ -0,0 +1,100 @@
+package org.kpcc.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+// ISODateParser has to give the same results as the SimpleDateFormats it replaced.
+public class ISODateParserTest {
+    // Zones with DST, ones that changed DST at midnight, and ones with odd offsets.
+    private static final String[] TIME_ZONES = {
+            "America/Los_Angeles", "UTC", "America/Sao_Paulo", "America/Havana", "Asia/Beirut",
+            "Asia/Kolkata", "Australia/Lord_Howe", "Pacific/Chatham", "Europe/London"
+    };
+    private static final long START_MS = 0L; // 1970
+    private static final long END_MS = 4102444800000L; // 2100
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final int SAMPLES = 20000;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        setDefaultTimeZone(mDefaultTimeZone);
+    }
+
+    @Test
+    public void parseDateTimeMatchesSimpleDateFormat() throws ParseException {
+        Random random = new Random(0);
+
+        for (String id : TIME_ZONES) {
+            setDefaultTimeZone(TimeZone.getTimeZone(id));
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.US);
+
+            for (int i = 0; i < SAMPLES; i++) {
+                long ms = START_MS + (long) (random.nextDouble() * (END_MS - START_MS));
+                String s = sdf.format(new Date(ms));
+                long expected = sdf.parse(s).getTime();
+
+                assertEquals(s, expected, ISODateParser.parseDateTime(s));
+
+                // The API sends the offset with a colon (-07:00).
+                String withColon = s.substring(0, 26) + ":" + s.substring(26);
+                assertEquals(withColon, expected, ISODateParser.parseDateTime(withColon));
+            }
+        }
+    }
+
+    @Test
+    public void parseDateTimeInUtc() {
+        assertEquals(1462366800000L, ISODateParser.parseDateTime("2016-05-04T13:00:00.000Z"));
+        assertEquals(1462392000000L, ISODateParser.parseDateTime("2016-05-04T13:00:00.000-07:00"));
+        assertEquals(1462392000000L, ISODateParser.parseDateTime("2016-05-04T13:00:00.000-0700"));
+    }
+
+    @Test
+    public void parseDateMatchesSimpleDateFormat() throws ParseException {
+        for (String id : TIME_ZONES) {
+            setDefaultTimeZone(TimeZone.getTimeZone(id));
+            SimpleDateFormat utc = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+            utc.setTimeZone(TimeZone.getTimeZone("UTC"));
+            SimpleDateFormat local = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+
+            // Every day, so every DST change is covered.
+            for (long ms = START_MS; ms < END_MS; ms += DAY_MS) {
+                String s = utc.format(new Date(ms));
+                assertEquals(id + " " + s, local.parse(s).getTime(), ISODateParser.parseDate(s));
+            }
+        }
+    }
+
+    @Test
+    public void unusualShapesFallBackToSimpleDateFormat() throws ParseException {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+
+        // Lenient parsing rolls Feb 30 over into March.
+        assertEquals(sdf.parse("2016-02-30").getTime(), ISODateParser.parseDate("2016-02-30"));
+        assertEquals(ISODateParser.INVALID, ISODateParser.parseDate("not a date"));
+        assertEquals(ISODateParser.INVALID, ISODateParser.parseDateTime("2016-05-04"));
+        assertEquals(ISODateParser.INVALID, ISODateParser.parseDateTime(null));
+    }
+
+    private static void setDefaultTimeZone(TimeZone timeZone) {
+        TimeZone.setDefault(timeZone);
+        ISODateParser.refreshTimeZone();
+    }
+}